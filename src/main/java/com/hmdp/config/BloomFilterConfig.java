@@ -0,0 +1,33 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.IdBloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 商铺、笔记id的布隆过滤器，防止用随机id扫库造成缓存穿透
+ */
+@Configuration
+public class BloomFilterConfig {
+
+    @Value("${hmdp.bloom.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.bloom.expected-insertions:100000}")
+    private long expectedInsertions;
+
+    @Bean
+    public IdBloomFilter<Shop> shopBloomFilter(ShopMapper shopMapper, StringRedisTemplate stringRedisTemplate) {
+        return new IdBloomFilter<>("shop", shopMapper, stringRedisTemplate, expectedInsertions, fpp);
+    }
+
+    @Bean
+    public IdBloomFilter<Blog> blogBloomFilter(BlogMapper blogMapper, StringRedisTemplate stringRedisTemplate) {
+        return new IdBloomFilter<>("blog", blogMapper, stringRedisTemplate, expectedInsertions, fpp);
+    }
+}
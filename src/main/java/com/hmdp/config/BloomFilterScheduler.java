@@ -0,0 +1,61 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.IdBloomFilter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_ADD_CHANNEL;
+
+/**
+ * 负责所有 IdBloomFilter 的构建、定时重建和跨节点同步
+ */
+@Slf4j
+@Component
+public class BloomFilterScheduler {
+
+    @Resource
+    private List<IdBloomFilter<?>> filters;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    @PostConstruct
+    private void subscribe() {
+        //其它节点新增了数据，同步追加到本机过滤器
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int i = body.lastIndexOf(':');
+            if (i < 0) {
+                return;
+            }
+            String name = body.substring(0, i);
+            Long id = Long.valueOf(body.substring(i + 1));
+            for (IdBloomFilter<?> filter : filters) {
+                if (filter.getName().equals(name)) {
+                    filter.addLocal(id);
+                }
+            }
+        }, new ChannelTopic(BLOOM_FILTER_ADD_CHANNEL));
+    }
+
+    /**
+     * 启动后立即构建一次，之后按固定间隔全量重建，清理已删除的id并重新评估容量
+     */
+    @Scheduled(fixedDelayString = "${hmdp.bloom.rebuild-interval-ms:3600000}")
+    public void rebuild() {
+        for (IdBloomFilter<?> filter : filters) {
+            try {
+                filter.rebuild();
+            } catch (Exception e) {
+                log.error("布隆过滤器[{}]重建失败", filter.getName(), e);
+            }
+        }
+    }
+}
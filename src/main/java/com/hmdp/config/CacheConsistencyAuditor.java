@@ -0,0 +1,208 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.NumberUtil;
+import com.hmdp.dto.CacheDiffPage;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.ICacheAdminService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.RedisCircuitBreaker;
+import com.hmdp.utils.SimpleRedisLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_AUDIT_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_AUDIT_LOCK;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 缓存一致性巡检：逐页扫描 cache:shop:*，和 tb_shop 逐字段对比，修复不一致的条目
+ * 扫描和比较使用 ICacheAdminService.diffShops，与管理接口的对比结果一致
+ * 1.增量：每次定时任务只处理一页，SCAN游标保存在redis中，换节点、重启后接着上次的位置继续；扫完一轮后隔一段时间再开始下一轮
+ * 2.单点：每一步先抢分布式锁，多个节点同一时刻只有一个在巡检
+ * 3.限速：每页的key数量按 keys-per-second 计算；一步花了多久，就按占空比暂停更久；熔断器不是关闭状态时不巡检
+ * 4.修复：值过期的按数据库最新数据写回（按版本号比较后写入，不会覆盖并发写入的更新版本），数据库已删除或缓存了空值的直接删除缓存
+ * 偏差率（不一致条目 / 检查条目）按轮次统计，可通过 /cache/stats 查看
+ */
+@Slf4j
+@Component
+public class CacheConsistencyAuditor {
+
+    private static final String FIELD_CURSOR = "cursor";
+    private static final String FIELD_NEXT_PASS_AT = "nextPassAt";
+    //锁的超时时间，一步正常只需要几十毫秒
+    private static final long LOCK_TIMEOUT_SECONDS = 30L;
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    @Resource
+    private ICacheAdminService cacheAdminService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+
+    @Value("${hmdp.cache.audit.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.audit.interval-ms:1000}")
+    private long intervalMillis;
+    @Value("${hmdp.cache.audit.keys-per-second:100}")
+    private int keysPerSecond;
+    @Value("${hmdp.cache.audit.max-duty-ratio:0.1}")
+    private double maxDutyRatio;
+    @Value("${hmdp.cache.audit.pass-interval-ms:600000}")
+    private long passIntervalMillis;
+    @Value("${hmdp.cache.audit.repair:true}")
+    private boolean repair;
+
+    //本机按占空比暂停到这个时间
+    private volatile long pausedUntil;
+
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder repaired = new LongAdder();
+    private final LongAdder repairFailures = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final ConcurrentHashMap<String, LongAdder> drifted = new ConcurrentHashMap<>();
+    //当前轮次（本机参与的部分）的检查数和不一致数
+    private final LongAdder passChecked = new LongAdder();
+    private final LongAdder passDrifted = new LongAdder();
+    private volatile double lastPassDriftRate;
+    private volatile long lastPassEndAt;
+    private final LongAdder passes = new LongAdder();
+
+    @Scheduled(fixedDelayString = "${hmdp.cache.audit.interval-ms:1000}")
+    public void audit() {
+        if (!enabled || System.currentTimeMillis() < pausedUntil) {
+            return;
+        }
+        //redis异常或正在恢复时不巡检，把有限的访问留给用户请求
+        if (redisCircuitBreaker.state() != RedisCircuitBreaker.State.CLOSED) {
+            skipped.increment();
+            return;
+        }
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, CACHE_AUDIT_LOCK);
+        long begin = System.currentTimeMillis();
+        try {
+            if (!lock.trylock(LOCK_TIMEOUT_SECONDS)) {
+                return;
+            }
+            try {
+                step();
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.warn("缓存一致性巡检失败", e);
+        } finally {
+            //占空比限制：这一步用了多久，之后就至少暂停 耗时*(1/ratio - 1)
+            long cost = System.currentTimeMillis() - begin;
+            pausedUntil = System.currentTimeMillis() + (long) (cost * (1 / maxDutyRatio - 1));
+        }
+    }
+
+    //巡检一页
+    private void step() {
+        Map<Object, Object> progress = stringRedisTemplate.opsForHash().entries(CACHE_AUDIT_KEY);
+        long nextPassAt = NumberUtil.parseLong(String.valueOf(progress.getOrDefault(FIELD_NEXT_PASS_AT, "0")));
+        if (System.currentTimeMillis() < nextPassAt) {
+            return;
+        }
+        String cursor = String.valueOf(progress.getOrDefault(FIELD_CURSOR, "0"));
+        steps.increment();
+        //1.扫描并对比一页，页大小按每秒限额和调度间隔计算
+        int count = (int) Math.max(1, Math.min(1000, keysPerSecond * intervalMillis / 1000));
+        CacheDiffPage page = cacheAdminService.diffShops(cursor, count);
+        checked.add(page.getSampled());
+        passChecked.add(page.getSampled());
+        //2.不一致的条目：数据库有的按最新数据写回，数据库已删除或缓存了空值的删除缓存
+        Map<Long, Shop> rewrite = new LinkedHashMap<>();
+        List<String> evict = new ArrayList<>();
+        for (CacheDiffPage.Mismatch mismatch : page.getMismatches()) {
+            passDrifted.increment();
+            drifted.computeIfAbsent(mismatch.getType(), k -> new LongAdder()).increment();
+            log.debug("缓存与数据库不一致, key={}, type={}, fields={}", mismatch.getKey(), mismatch.getType(), mismatch.getFields());
+            Shop row = (Shop) mismatch.getRow();
+            if (row == null || CacheDiffPage.NULL_MARKER_BUT_IN_DB.equals(mismatch.getType())) {
+                evict.add(mismatch.getKey());
+            } else {
+                rewrite.put(row.getId(), row);
+            }
+        }
+        if (repair) {
+            repair(rewrite, evict);
+        }
+        //3.保存游标，扫完一轮记录偏差率，隔一段时间再开始下一轮
+        Map<String, String> next = new HashMap<>();
+        next.put(FIELD_CURSOR, page.getCursor());
+        if ("0".equals(page.getCursor())) {
+            next.put(FIELD_NEXT_PASS_AT, String.valueOf(System.currentTimeMillis() + passIntervalMillis));
+            finishPass();
+        }
+        stringRedisTemplate.opsForHash().putAll(CACHE_AUDIT_KEY, next);
+    }
+
+    private void repair(Map<Long, Shop> rewrite, List<String> evict) {
+        try {
+            if (!rewrite.isEmpty()) {
+                cacheClient.setBatchWithLogicalExpire(CACHE_SHOP_KEY, rewrite, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+            }
+            if (!evict.isEmpty()) {
+                cacheInvalidator.invalidate(evict);
+            }
+            repaired.add(rewrite.size() + evict.size());
+        } catch (Exception e) {
+            repairFailures.add(rewrite.size() + evict.size());
+            log.warn("修复不一致的缓存失败, ids={}, keys={}", rewrite.keySet(), evict, e);
+        }
+    }
+
+    private void finishPass() {
+        long total = passChecked.sumThenReset();
+        long drift = passDrifted.sumThenReset();
+        lastPassDriftRate = total == 0 ? 0D : (double) drift / total;
+        lastPassEndAt = System.currentTimeMillis();
+        passes.increment();
+        if (drift > 0) {
+            log.warn("缓存一致性巡检完成一轮，检查{}条，不一致{}条，偏差率{}", total, drift, lastPassDriftRate);
+        } else {
+            log.info("缓存一致性巡检完成一轮，检查{}条，没有不一致", total);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("steps", steps.sum());
+        stats.put("checked", checked.sum());
+        Map<String, Long> drift = new HashMap<>();
+        drifted.forEach((type, count) -> drift.put(type, count.sum()));
+        stats.put("drifted", drift);
+        stats.put("repaired", repaired.sum());
+        stats.put("repairFailures", repairFailures.sum());
+        stats.put("skipped", skipped.sum());
+        long passTotal = passChecked.sum();
+        stats.put("currentPassChecked", passTotal);
+        stats.put("currentPassDriftRate", passTotal == 0 ? 0D : (double) passDrifted.sum() / passTotal);
+        stats.put("passes", passes.sum());
+        stats.put("lastPassDriftRate", lastPassDriftRate);
+        stats.put("lastPassEndAt", lastPassEndAt);
+        return stats;
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 缓存预热：启动完成后（或手动触发）按id顺序分批读取 tb_shop，
+ * 每批用pipeline写入逻辑过期数据，同时预热商铺类型，让新节点尽快可以接流量
+ * 读库是单线程按id翻页，写redis按 concurrency 并发，最多同时有 concurrency 批在写
+ */
+@Slf4j
+@Component
+public class CacheWarmUp {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private CacheClient cacheClient;
+
+    @Value("${hmdp.cache.warmup.on-startup:true}")
+    private boolean onStartup;
+    @Value("${hmdp.cache.warmup.chunk-size:500}")
+    private int chunkSize;
+    @Value("${hmdp.cache.warmup.concurrency:4}")
+    private int concurrency;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile String status = "IDLE";
+    private volatile long total;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private final AtomicLong lastId = new AtomicLong();
+    private volatile long startTime;
+    private volatile long costMillis;
+    private volatile String error;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (onStartup) {
+            start();
+        }
+    }
+
+    /**
+     * 异步开始预热
+     * @return false 表示已有预热在进行
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(this::run, "cache-warmup");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void run() {
+        status = "RUNNING";
+        written.set(0);
+        chunks.set(0);
+        lastId.set(0);
+        error = null;
+        startTime = System.currentTimeMillis();
+        ExecutorService writers = Executors.newFixedThreadPool(concurrency);
+        //控制同时在写的批次数，读库不会远远跑在写redis前面
+        Semaphore permits = new Semaphore(concurrency);
+        try {
+            //1.商铺类型只有一个key，直接写
+            shopTypeService.refreshCache();
+            //2.商铺按id翻页，不用offset，避免深分页
+            total = shopService.count();
+            long cursor = 0;
+            while (true) {
+                long begin = System.currentTimeMillis();
+                List<Shop> shops = shopService.query()
+                        .gt("id", cursor)
+                        .orderByAsc("id")
+                        .last("limit " + chunkSize)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                cursor = shops.get(shops.size() - 1).getId();
+                Map<Long, Shop> batch = new LinkedHashMap<>(shops.size());
+                shops.forEach(shop -> batch.put(shop.getId(), shop));
+                long batchLastId = cursor;
+                //这一批的查库耗时作为重建耗时记录下来，供提前刷新使用
+                long delta = System.currentTimeMillis() - begin;
+                permits.acquire();
+                writers.execute(() -> {
+                    try {
+                        //3.pipeline写入逻辑过期数据
+                        cacheClient.setBatchWithLogicalExpire(CACHE_SHOP_KEY, batch, CACHE_SHOP_TTL, TimeUnit.MINUTES, delta);
+                        written.addAndGet(batch.size());
+                        chunks.incrementAndGet();
+                        lastId.accumulateAndGet(batchLastId, Math::max);
+                        log.debug("缓存预热进度 {}/{}", written.get(), total);
+                    } catch (Exception e) {
+                        error = e.getMessage();
+                        log.error("缓存预热写入失败, lastId={}", batchLastId, e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+                if (shops.size() < chunkSize) {
+                    break;
+                }
+            }
+            //4.等待所有批次写完
+            permits.acquire(concurrency);
+            permits.release(concurrency);
+            status = error == null ? "DONE" : "FAILED";
+        } catch (Exception e) {
+            error = e.getMessage();
+            status = "FAILED";
+            log.error("缓存预热失败", e);
+        } finally {
+            writers.shutdown();
+            costMillis = System.currentTimeMillis() - startTime;
+            running.set(false);
+            log.info("缓存预热结束，状态：{}，写入商铺 {}/{}，耗时 {} ms", status, written.get(), total, costMillis);
+        }
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> progress() {
+        Map<String, Object> progress = new HashMap<>();
+        long done = written.get();
+        progress.put("status", status);
+        progress.put("total", total);
+        progress.put("written", done);
+        progress.put("chunks", chunks.get());
+        progress.put("lastId", lastId.get());
+        progress.put("percent", total == 0 ? 0D : Math.min(100D, done * 100D / total));
+        progress.put("costMillis", running.get() ? System.currentTimeMillis() - startTime : costMillis);
+        progress.put("concurrency", concurrency);
+        progress.put("chunkSize", chunkSize);
+        progress.put("error", error);
+        return progress;
+    }
+}
@@ -0,0 +1,211 @@
+package com.hmdp.config;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SeckillKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_LEGACY_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_MIGRATION_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 把旧的key布局迁移到带hash tag的布局，迁移后才能切换到Redis Cluster
+ * 1.秒杀库存 seckill:stock:券id、已购用户 seckill:order:券id 复制到对应分片的key
+ * 2.缓存版本号 ver:缓存key 改名为 ver:{缓存key}
+ * 3.旧订单流 stream.orders 中还没确认的消息（pending）和还没投递的消息，按券id追加到对应分片的订单流
+ *    每条消息的追加和迁移进度（最后一条已复制消息的id）由同一个Lua脚本写入，中断后重新执行从进度处续传，不会重复下单
+ * 迁移在单机redis上、停止下单的维护窗口内执行：旧节点的消费者、秒杀脚本仍在运行时迁移可能丢单
+ * 中断后可以重复执行：库存、已购用户、版本号按新key为准合并，订单流按进度续传
+ */
+@Slf4j
+@Component
+public class RedisKeyMigration {
+
+    private static final int SCAN_COUNT = 500;
+    private static final int STREAM_PAGE = 500;
+    private static final String PROGRESS_STREAM = "stream";
+
+    private static final DefaultRedisScript<Long> MIGRATE_STREAM_SCRIPT;
+    static {
+        MIGRATE_STREAM_SCRIPT = new DefaultRedisScript<>();
+        MIGRATE_STREAM_SCRIPT.setLocation(new ClassPathResource("seckill_migrate_stream.lua"));
+        MIGRATE_STREAM_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    public Map<String, Object> migrate() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("stock", migrateStock());
+        result.put("order", migrateOrder());
+        result.put("version", migrateVersion());
+        result.put("stream", migrateStream());
+        log.info("key迁移完成：{}", result);
+        return result;
+    }
+
+    private int migrateStock() {
+        int migrated = 0;
+        for (String key : scan(SECKILL_STOCK_KEY + "*")) {
+            Long voucherId = voucherIdOf(key, SECKILL_STOCK_KEY);
+            if (voucherId == null) {
+                continue;
+            }
+            String stock = stringRedisTemplate.opsForValue().get(key);
+            if (stock != null) {
+                //新key已存在说明迁移后已经写过库存，以新key为准
+                stringRedisTemplate.opsForValue().setIfAbsent(seckillKeys.stockKey(voucherId), stock);
+            }
+            stringRedisTemplate.delete(key);
+            migrated++;
+        }
+        return migrated;
+    }
+
+    private int migrateOrder() {
+        int migrated = 0;
+        for (String key : scan(SECKILL_ORDER_KEY + "*")) {
+            Long voucherId = voucherIdOf(key, SECKILL_ORDER_KEY);
+            if (voucherId == null) {
+                continue;
+            }
+            Set<String> userIds = stringRedisTemplate.opsForSet().members(key);
+            if (userIds != null && !userIds.isEmpty()) {
+                stringRedisTemplate.opsForSet().add(seckillKeys.orderKey(voucherId), userIds.toArray(new String[0]));
+            }
+            stringRedisTemplate.delete(key);
+            migrated++;
+        }
+        return migrated;
+    }
+
+    private int migrateVersion() {
+        int migrated = 0;
+        for (String key : scan(CACHE_VERSION_KEY + "*")) {
+            //已经是新格式 ver:{缓存key}
+            if (key.startsWith(CACHE_VERSION_KEY + "{")) {
+                continue;
+            }
+            String version = stringRedisTemplate.opsForValue().get(key);
+            if (version != null) {
+                //新key已存在说明之后写入过更新的版本
+                stringRedisTemplate.opsForValue().setIfAbsent(
+                        CacheClient.versionKeyOf(key.substring(CACHE_VERSION_KEY.length())), version);
+            }
+            stringRedisTemplate.delete(key);
+            migrated++;
+        }
+        return migrated;
+    }
+
+    private int migrateStream() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_LEGACY_STREAM))) {
+            //上次迁移删除旧订单流后中断，进度已经没用了
+            stringRedisTemplate.delete(SECKILL_MIGRATION_KEY);
+            return 0;
+        }
+        //上次中断时已复制到的消息，消息按id递增的顺序复制，不大于它的都已复制过
+        Object progress = stringRedisTemplate.opsForHash().get(SECKILL_MIGRATION_KEY, PROGRESS_STREAM);
+        RecordId copiedUpTo = progress == null ? null : RecordId.of(progress.toString());
+        //1.消费者组已投递到的位置，没有消费者组时全部消息都未投递
+        String lastDelivered = stringRedisTemplate.opsForStream().groups(SECKILL_LEGACY_STREAM).stream()
+                .filter(group -> SECKILL_ORDER_GROUP.equals(group.groupName()))
+                .map(StreamInfo.XInfoGroup::lastDeliveredId)
+                .findFirst().orElse("0-0");
+        int migrated = 0;
+        //2.已投递未确认的消息，id都不大于已投递的位置，按id递增返回
+        if (!"0-0".equals(lastDelivered)) {
+            for (PendingMessage pending : stringRedisTemplate.opsForStream()
+                    .pending(SECKILL_LEGACY_STREAM, SECKILL_ORDER_GROUP, Range.unbounded(), Long.MAX_VALUE)) {
+                String id = pending.getIdAsString();
+                migrated += copy(stringRedisTemplate.opsForStream().range(SECKILL_LEGACY_STREAM, Range.closed(id, id)), copiedUpTo);
+            }
+        }
+        //3.还没投递的消息
+        String from = lastDelivered;
+        while (true) {
+            List<MapRecord<String, Object, Object>> page = stringRedisTemplate.opsForStream().range(SECKILL_LEGACY_STREAM,
+                    Range.rightUnbounded(Range.Bound.exclusive(from)), RedisZSetCommands.Limit.limit().count(STREAM_PAGE));
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+            migrated += copy(page, copiedUpTo);
+            from = page.get(page.size() - 1).getId().getValue();
+        }
+        //4.剩下的都是已确认的消息，删除旧订单流和迁移进度
+        stringRedisTemplate.delete(Arrays.asList(SECKILL_LEGACY_STREAM, SECKILL_MIGRATION_KEY));
+        return migrated;
+    }
+
+    private int copy(List<MapRecord<String, Object, Object>> records, RecordId copiedUpTo) {
+        int copied = 0;
+        for (MapRecord<String, Object, Object> record : records) {
+            if (copiedUpTo != null && compare(record.getId(), copiedUpTo) <= 0) {
+                continue;
+            }
+            Map<Object, Object> value = record.getValue();
+            Long voucherId = Long.valueOf(value.get("voucherId").toString());
+            List<Object> args = new ArrayList<>(2 + value.size() * 2);
+            args.add(PROGRESS_STREAM);
+            args.add(record.getId().getValue());
+            value.forEach((field, v) -> {
+                args.add(field.toString());
+                args.add(v.toString());
+            });
+            stringRedisTemplate.execute(MIGRATE_STREAM_SCRIPT,
+                    Arrays.asList(seckillKeys.streamKey(voucherId), SECKILL_MIGRATION_KEY), args.toArray());
+            copied++;
+        }
+        return copied;
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private List<String> scan(String pattern) {
+        return stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            try (Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(SCAN_COUNT).build())) {
+                cursor.forEachRemaining(key -> keys.add(new String(key, StandardCharsets.UTF_8)));
+            }
+            return keys;
+        });
+    }
+
+    //旧key中的券id，不是数字（例如新格式的key）返回null
+    private static Long voucherIdOf(String key, String prefix) {
+        String id = key.substring(prefix.length());
+        return StrUtil.isNumeric(id) ? Long.valueOf(id) : null;
+    }
+}
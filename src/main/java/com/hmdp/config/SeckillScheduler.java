@@ -0,0 +1,104 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutMarker;
+import com.hmdp.utils.SeckillStock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀券的定时预热和归档
+ * 1.预热：开始时间在 pre-warm-ms 之内的券，按数据库重新写入库存和时间窗口，清空已购用户
+ * 2.归档：结束超过 archive-delay-ms 的券，剩余库存和已购人数写入归档，删除库存和已购用户
+ * 多个节点都会执行，每个券的预热、归档先用 SET NX / HSETNX 抢占，只有一个节点真正执行
+ */
+@Slf4j
+@Component
+public class SeckillScheduler {
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillKeys seckillKeys;
+    @Resource
+    private SeckillSoldOutMarker soldOutMarker;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.schedule.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.schedule.pre-warm-ms:300000}")
+    private long preWarmMillis;
+    @Value("${hmdp.seckill.schedule.archive-delay-ms:60000}")
+    private long archiveDelayMillis;
+    @Value("${hmdp.seckill.schedule.archive-lookback-hours:168}")
+    private long archiveLookbackHours;
+    @Value("${hmdp.seckill.schedule.archive-ttl-days:30}")
+    private long archiveTtlDays;
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.schedule.interval-ms:10000}")
+    public void schedule() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            preWarm(now);
+        } catch (Exception e) {
+            log.error("秒杀券预热失败", e);
+        }
+        try {
+            archive(now);
+        } catch (Exception e) {
+            log.error("秒杀券归档失败", e);
+        }
+    }
+
+    private void preWarm(LocalDateTime now) {
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("begin_time", now)
+                .le("begin_time", now.plus(Duration.ofMillis(preWarmMillis)))
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            Long voucherId = voucher.getVoucherId();
+            //标记保留到开始后一天，这段时间内同一个券不会再次预热
+            long ttl = Duration.between(now, voucher.getBeginTime()).toMillis() + TimeUnit.DAYS.toMillis(1);
+            if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(seckillKeys.warmedKey(voucherId), "1", ttl, TimeUnit.MILLISECONDS))) {
+                continue;
+            }
+            int segments = seckillStock.reset(voucherId, voucher.getStock(), voucher.getBeginTime(), voucher.getEndTime());
+            soldOutMarker.clear(voucherId);
+            log.info("秒杀券预热完成，voucherId:{}，库存:{}，分段数:{}，开始时间:{}",
+                    voucherId, voucher.getStock(), segments, voucher.getBeginTime());
+        }
+    }
+
+    private void archive(LocalDateTime now) {
+        LocalDateTime endedBefore = now.minus(Duration.ofMillis(archiveDelayMillis));
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .le("end_time", endedBefore)
+                .gt("end_time", endedBefore.minusHours(archiveLookbackHours))
+                .list();
+        for (SeckillVoucher voucher : vouchers) {
+            Map<String, String> archive = seckillStock.archive(voucher.getVoucherId(), TimeUnit.DAYS.toMillis(archiveTtlDays));
+            if (archive != null) {
+                log.info("秒杀券已归档，voucherId:{}，{}", voucher.getVoucherId(), archive);
+            }
+        }
+    }
+}
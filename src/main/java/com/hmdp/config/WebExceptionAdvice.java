@@ -1,7 +1,10 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.RedisUnavailableException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.RedisConnectionFailureException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
@@ -9,6 +12,13 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    //redis故障且无法降级（如秒杀下单），不打印堆栈，避免故障期间日志刷屏
+    @ExceptionHandler({RedisUnavailableException.class, RedisConnectionFailureException.class, QueryTimeoutException.class})
+    public Result handleRedisUnavailable(RuntimeException e) {
+        log.warn("redis不可用: {}", e.getMessage());
+        return Result.fail("服务繁忙，请稍后重试");
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
@@ -0,0 +1,98 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.config.RedisKeyMigration;
+import com.hmdp.dto.Result;
+import com.hmdp.service.ICacheAdminService;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运维：按前缀翻页查看key、查看单个key、删除、预热、与数据库抽样对比
+ * 目前支持的前缀：cache:shop:（按id）、cache:shopType:（单个key）
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache/admin")
+public class CacheAdminController {
+
+    @Resource
+    private ICacheAdminService cacheAdminService;
+    @Resource
+    private RedisKeyMigration redisKeyMigration;
+
+    /**
+     * 按前缀翻页列出key
+     * @param prefix 缓存前缀，例如 cache:shop:
+     * @param cursor 上一页返回的游标，第一页传0
+     * @param count 本页SCAN的数量提示
+     * @return key和剩余TTL（毫秒），以及下一页的游标，游标为0表示扫描完毕
+     */
+    @GetMapping("/keys")
+    public Result keys(@RequestParam("prefix") String prefix,
+                       @RequestParam(value = "cursor", defaultValue = "0") String cursor,
+                       @RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return cacheAdminService.keys(prefix, cursor, count);
+    }
+
+    /**
+     * 查看单个key
+     * @return 解码后的值、编码、大小、剩余TTL、逻辑过期时间、版本号
+     */
+    @GetMapping("/key")
+    public Result inspect(@RequestParam("key") String key) {
+        return cacheAdminService.inspect(key);
+    }
+
+    /**
+     * 删除单个key
+     */
+    @DeleteMapping("/key")
+    public Result evict(@RequestParam("key") String key) {
+        return cacheAdminService.evict(key);
+    }
+
+    /**
+     * 删除一段id的缓存
+     * @return 删除的key数量
+     */
+    @DeleteMapping("/keys")
+    public Result evictRange(@RequestParam("prefix") String prefix,
+                             @RequestParam(value = "from", required = false) Long fromId,
+                             @RequestParam(value = "to", required = false) Long toId) {
+        return cacheAdminService.evictRange(prefix, fromId, toId);
+    }
+
+    /**
+     * 从数据库重新加载一段id写入缓存，单个key传相同的from和to
+     * @return 写入的数量
+     */
+    @PostMapping("/warm")
+    public Result warm(@RequestParam("prefix") String prefix,
+                       @RequestParam(value = "from", required = false) Long fromId,
+                       @RequestParam(value = "to", required = false) Long toId) {
+        return cacheAdminService.warm(prefix, fromId, toId);
+    }
+
+    /**
+     * 扫描一页key与数据库对比
+     * @return 抽样数、一致数、按类型统计的不一致数、不一致比例、明细，以及下一页的游标
+     */
+    @GetMapping("/diff")
+    public Result diff(@RequestParam("prefix") String prefix,
+                       @RequestParam(value = "cursor", defaultValue = "0") String cursor,
+                       @RequestParam(value = "count", defaultValue = "100") Integer count) {
+        return cacheAdminService.diff(prefix, cursor, count);
+    }
+
+    /**
+     * 把旧的秒杀key、版本号key、订单流迁移到带hash tag的布局，在停止下单的维护窗口内执行；中断后可以重新执行，订单流按进度续传
+     * @return 各类迁移的数量
+     */
+    @PostMapping("/migrate/cluster-keys")
+    public Result migrateClusterKeys() {
+        return Result.ok(redisKeyMigration.migrate());
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.config.CacheConsistencyAuditor;
+import com.hmdp.config.CacheWarmUp;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.RedisCircuitBreaker;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+
+/**
+ * <p>
+ * 缓存运行状态查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private List<IdBloomFilter<?>> bloomFilters;
+    @Resource
+    private CacheWarmUp cacheWarmUp;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    @Resource
+    private RedisCircuitBreaker redisCircuitBreaker;
+    @Resource
+    private CacheConsistencyAuditor cacheConsistencyAuditor;
+
+    /**
+     * 查询缓存统计信息
+     * @return 本地一级缓存的命中、未命中、淘汰次数，布隆过滤器状态等
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("local", cacheClient.localStats());
+        stats.put("singleFlight", cacheClient.singleFlightStats());
+        stats.put("rebuild", cacheClient.rebuildStats());
+        stats.put("async", cacheClient.asyncStats());
+        stats.put("degrade", cacheClient.degradeStats());
+        stats.put("breaker", redisCircuitBreaker.stats());
+        stats.put("expiry", cacheClient.expiryStats());
+        stats.put("adaptiveTtl", cacheClient.adaptiveTtlStats());
+        stats.put("hot", cacheClient.hotKeyStats());
+        stats.put("invalidate", cacheInvalidator.stats());
+        stats.put("audit", cacheConsistencyAuditor.stats());
+        Map<String, Object> bloom = new HashMap<>();
+        bloomFilters.forEach(filter -> bloom.put(filter.getName(), filter.stats()));
+        stats.put("bloom", bloom);
+        return Result.ok(stats);
+    }
+
+    /**
+     * 按key前缀分组的缓存指标
+     * @return 每个前缀的命中率、各结果（本地命中/命中/旧数据/空值/未命中等）的次数和耗时分位数、重建耗时、锁争用
+     */
+    @GetMapping("/metrics")
+    public Result metrics() {
+        return Result.ok(cacheClient.metrics());
+    }
+
+    /**
+     * 当前探测到的热点key，按估算QPS从高到低
+     */
+    @GetMapping("/hotkeys")
+    public Result hotKeys() {
+        return Result.ok(cacheClient.hotKeys());
+    }
+
+    /**
+     * 切换缓存编码后，把商铺缓存批量改写为当前编码；商铺类型等单个key会在读取时自动迁移
+     * @return 改写的key数量
+     */
+    @PostMapping("/codec/migrate/shop")
+    public Result migrateShopCodec() {
+        return Result.ok(cacheClient.migrateCodec(CACHE_SHOP_KEY, Shop.class));
+    }
+
+    /**
+     * 手动触发缓存预热（商铺逻辑过期数据 + 商铺类型），异步执行
+     */
+    @PostMapping("/warmup")
+    public Result warmUp() {
+        if (!cacheWarmUp.start()) {
+            return Result.fail("缓存预热正在进行中");
+        }
+        return Result.ok(cacheWarmUp.progress());
+    }
+
+    /**
+     * 查询预热进度
+     */
+    @GetMapping("/warmup")
+    public Result warmUpProgress() {
+        return Result.ok(cacheWarmUp.progress());
+    }
+}
@@ -3,12 +3,18 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillSoldOutMarker;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * <p>
@@ -24,11 +30,34 @@ public class VoucherOrderController {
 
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillAdmission seckillAdmission;
+    @Resource
+    private SeckillSoldOutMarker soldOutMarker;
 
 
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
-
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 HttpServletRequest request, HttpServletResponse response) {
+        //1.已售罄的请求不占用准入令牌
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //2.准入限流，超出的请求在执行秒杀脚本、生成订单id之前拒绝，data为建议的重试等待毫秒数
+        long retryAfterMs = seckillAdmission.tryAdmit(voucherId, UserHolder.getUser().getId(), request.getRemoteAddr());
+        if (retryAfterMs > 0) {
+            response.setHeader("Retry-After", String.valueOf((retryAfterMs + 999) / 1000));
+            return new Result(false, "抢购人数过多，请稍后重试", retryAfterMs, null);
+        }
         return  voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀准入统计
+     * @return 每个券的放行、拒绝次数，最近10秒的放行QPS和拒绝率
+     */
+    @GetMapping("admission/stats")
+    public Result admissionStats() {
+        return Result.ok(seckillAdmission.stats());
+    }
 }
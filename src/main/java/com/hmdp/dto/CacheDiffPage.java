@@ -0,0 +1,43 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 一页缓存与数据库的对比结果，管理接口的对比和一致性巡检共用
+ * cursor为"0"表示已经扫描完；sampled为实际比较的条目数，mismatches只包含不一致的条目
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheDiffPage {
+    //缓存和数据库的值不同
+    public static final String STALE = "STALE";
+    //缓存有，数据库没有
+    public static final String MISSING_IN_DB = "MISSING_IN_DB";
+    //缓存的是空值，数据库有
+    public static final String NULL_MARKER_BUT_IN_DB = "NULL_MARKER_BUT_IN_DB";
+
+    private String cursor;
+    private int sampled;
+    private List<Mismatch> mismatches;
+
+    /**
+     * 一条不一致，type 为上面三种之一
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Mismatch {
+        private String key;
+        private String type;
+        //值不同的字段，只有STALE时有
+        private Set<String> fields;
+        //数据库中的数据，修复时直接写回，数据库没有时为null
+        private Object row;
+    }
+}
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 一次SCAN的结果，cursor为"0"表示已经扫描完
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheScanPage {
+    private List<String> keys;
+    private String cursor;
+}
@@ -103,6 +103,11 @@ public class Shop implements Serializable {
      */
     private LocalDateTime updateTime;
 
+    /**
+     * 版本号，每次更新加1，缓存按版本号写入，旧版本不会覆盖新版本
+     */
+    private Long version;
+
 
     @TableField(exist = false)
     private Double distance;
@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 秒杀库存的分段数，只在创建秒杀券时使用，为空时使用默认配置
+     */
+    @TableField(exist = false)
+    private Integer segments;
+
     /**
      * 生效时间
      */
@@ -0,0 +1,32 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.CacheDiffPage;
+import com.hmdp.dto.Result;
+
+/**
+ * <p>
+ *  缓存运维：查看、删除、预热缓存，抽样对比缓存与数据库
+ *  只支持已登记的前缀（商铺 cache:shop:、商铺类型 cache:shopType:），所有批量操作都有数量上限
+ * </p>
+ */
+public interface ICacheAdminService {
+
+    Result keys(String prefix, String cursor, Integer count);
+
+    Result inspect(String key);
+
+    Result evict(String key);
+
+    Result evictRange(String prefix, Long fromId, Long toId);
+
+    Result warm(String prefix, Long fromId, Long toId);
+
+    Result diff(String prefix, String cursor, Integer count);
+
+    /**
+     * 对比一页店铺缓存和数据库，diff 和一致性巡检共用同一套比较规则
+     * @param cursor SCAN游标，"0"表示从头开始
+     * @param count 每页扫描的key数量
+     */
+    CacheDiffPage diffShops(String cursor, int count);
+}
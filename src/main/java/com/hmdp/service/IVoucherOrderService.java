@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -17,4 +19,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
 
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量下单：按优惠券分组，每个券扣一次库存，订单批量插入；已下过单的用户跳过
+     * @return 数据库库存不足、没有创建的订单
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
 }
@@ -17,4 +17,9 @@ public interface IVoucherService extends IService<Voucher> {
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 补充秒杀券库存：数据库和redis同时增加，清除各节点的售罄标记
+     */
+    Result restockSeckillVoucher(Long voucherId, Integer count);
 }
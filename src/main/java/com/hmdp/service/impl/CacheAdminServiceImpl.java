@@ -0,0 +1,317 @@
+package com.hmdp.service.impl;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.NumberUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CacheDiffPage;
+import com.hmdp.dto.CacheScanPage;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.ICacheAdminService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_LIST_KEY;
+
+/**
+ * <p>
+ *  缓存运维服务实现类
+ *  1.列表：每次请求只执行一次SCAN，用游标翻页，剩余TTL用一次pipeline查询
+ *  2.对比：每页的缓存值一次MGET读取，数据库一次 listByIds，逐字段比较，统计不一致比例；一致性巡检使用同一个 diffShops
+ *  读缓存时不经过本地缓存、不计入指标，不会影响线上的命中率和热点统计
+ * </p>
+ */
+@Slf4j
+@Service
+public class CacheAdminServiceImpl implements ICacheAdminService {
+
+    //对比时忽略的字段：只在查询时计算，不在表中
+    private static final String[] IGNORED_FIELDS = {"distance"};
+    //一次对比最多返回的不一致明细
+    private static final int MAX_DETAILS = 50;
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Value("${hmdp.cache.admin.max-page-size:1000}")
+    private int maxPageSize;
+
+    @Override
+    public Result keys(String prefix, String cursor, Integer count) {
+        if (!isManaged(prefix)) {
+            return Result.fail("不支持的缓存前缀：" + prefix);
+        }
+        CacheScanPage page = cacheClient.scan(prefix, StrUtil.blankToDefault(cursor, "0"), pageSize(count));
+        Map<String, Long> ttls = cacheClient.ttls(page.getKeys());
+        List<Map<String, Object>> keys = new ArrayList<>(ttls.size());
+        ttls.forEach((key, ttl) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("ttlMs", ttl);
+            keys.add(item);
+        });
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("keys", keys);
+        data.put("cursor", page.getCursor());
+        return Result.ok(data);
+    }
+
+    @Override
+    public Result inspect(String key) {
+        if (StrUtil.startWith(key, CACHE_SHOP_KEY)) {
+            return Result.ok(cacheClient.inspect(key, Shop.class, false));
+        }
+        if (StrUtil.startWith(key, CACHE_SHOP_TYPE_LIST_KEY)) {
+            return Result.ok(cacheClient.inspect(key, ShopType.class, true));
+        }
+        return Result.fail("不支持的缓存key：" + key);
+    }
+
+    @Override
+    public Result evict(String key) {
+        if (!isManaged(prefixOf(key))) {
+            return Result.fail("不支持的缓存key：" + key);
+        }
+        //和业务更新一样经过 CacheInvalidator：广播删除各节点本地缓存，失败进入重试队列
+        cacheInvalidator.invalidate(key);
+        return Result.ok();
+    }
+
+    @Override
+    public Result evictRange(String prefix, Long fromId, Long toId) {
+        if (CACHE_SHOP_TYPE_LIST_KEY.equals(prefix)) {
+            return evict(CACHE_SHOP_TYPE_LIST_KEY);
+        }
+        if (!CACHE_SHOP_KEY.equals(prefix)) {
+            return Result.fail("不支持的缓存前缀：" + prefix);
+        }
+        String error = checkRange(fromId, toId);
+        if (error != null) {
+            return Result.fail(error);
+        }
+        List<String> keys = new ArrayList<>();
+        for (long id = fromId; id <= toId; id++) {
+            keys.add(CACHE_SHOP_KEY + id);
+        }
+        cacheInvalidator.invalidate(keys);
+        return Result.ok(keys.size());
+    }
+
+    @Override
+    public Result warm(String prefix, Long fromId, Long toId) {
+        if (CACHE_SHOP_TYPE_LIST_KEY.equals(prefix)) {
+            return Result.ok(shopTypeService.refreshCache().size());
+        }
+        if (!CACHE_SHOP_KEY.equals(prefix)) {
+            return Result.fail("不支持的缓存前缀：" + prefix);
+        }
+        String error = checkRange(fromId, toId);
+        if (error != null) {
+            return Result.fail(error);
+        }
+        //一次查库，一次pipeline写入逻辑过期数据，和启动预热的写法相同
+        long begin = System.currentTimeMillis();
+        List<Shop> shops = shopService.query().between("id", fromId, toId).list();
+        Map<Long, Shop> batch = shops.stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity(), (a, b) -> a, LinkedHashMap::new));
+        cacheClient.setBatchWithLogicalExpire(CACHE_SHOP_KEY, batch, CACHE_SHOP_TTL, TimeUnit.MINUTES,
+                System.currentTimeMillis() - begin);
+        return Result.ok(batch.size());
+    }
+
+    @Override
+    public Result diff(String prefix, String cursor, Integer count) {
+        if (CACHE_SHOP_TYPE_LIST_KEY.equals(prefix)) {
+            return Result.ok(diffShopTypes());
+        }
+        if (!CACHE_SHOP_KEY.equals(prefix)) {
+            return Result.fail("不支持的缓存前缀：" + prefix);
+        }
+        CacheDiffPage page = diffShops(StrUtil.blankToDefault(cursor, "0"), pageSize(count));
+        Map<String, Object> data = new DiffReport(page.getSampled(), page.getMismatches()).toMap();
+        data.put("cursor", page.getCursor());
+        return Result.ok(data);
+    }
+
+    @Override
+    public CacheDiffPage diffShops(String cursor, int count) {
+        //1.扫描一页key，只对比id是数字的
+        CacheScanPage page = cacheClient.scan(CACHE_SHOP_KEY, cursor, count);
+        List<String> keys = page.getKeys().stream()
+                .filter(key -> NumberUtil.isLong(key.substring(CACHE_SHOP_KEY.length())))
+                .collect(Collectors.toList());
+        //2.一次MGET读缓存，扫描后已过期的key不在结果中
+        Map<String, Object> cached = cacheClient.peek(keys, Shop.class, false);
+        //3.一次查库
+        List<Long> ids = cached.keySet().stream()
+                .map(key -> Long.valueOf(key.substring(CACHE_SHOP_KEY.length())))
+                .collect(Collectors.toList());
+        Map<Long, Shop> rows = ids.isEmpty() ? Collections.emptyMap() : shopService.listByIds(ids).stream()
+                .collect(Collectors.toMap(Shop::getId, Function.identity()));
+        //4.逐个比较
+        List<CacheDiffPage.Mismatch> mismatches = new ArrayList<>();
+        cached.forEach((key, value) -> {
+            CacheDiffPage.Mismatch mismatch = compare(key, value, rows.get(Long.valueOf(key.substring(CACHE_SHOP_KEY.length()))));
+            if (mismatch != null) {
+                mismatches.add(mismatch);
+            }
+        });
+        return new CacheDiffPage(page.getCursor(), cached.size(), mismatches);
+    }
+
+    private Map<String, Object> diffShopTypes() {
+        Map<String, Object> cached = cacheClient.peek(
+                Collections.singletonList(CACHE_SHOP_TYPE_LIST_KEY), ShopType.class, true);
+        List<CacheDiffPage.Mismatch> mismatches = new ArrayList<>();
+        if (cached.containsKey(CACHE_SHOP_TYPE_LIST_KEY)) {
+            CacheDiffPage.Mismatch mismatch = compare(CACHE_SHOP_TYPE_LIST_KEY, cached.get(CACHE_SHOP_TYPE_LIST_KEY),
+                    shopTypeService.query().orderByAsc("sort").list());
+            if (mismatch != null) {
+                mismatches.add(mismatch);
+            }
+        }
+        Map<String, Object> data = new DiffReport(cached.size(), mismatches).toMap();
+        data.put("cursor", "0");
+        return data;
+    }
+
+    private boolean isManaged(String prefix) {
+        return CACHE_SHOP_KEY.equals(prefix) || CACHE_SHOP_TYPE_LIST_KEY.equals(prefix);
+    }
+
+    private String prefixOf(String key) {
+        if (StrUtil.startWith(key, CACHE_SHOP_KEY)) {
+            return CACHE_SHOP_KEY;
+        }
+        return StrUtil.startWith(key, CACHE_SHOP_TYPE_LIST_KEY) ? CACHE_SHOP_TYPE_LIST_KEY : key;
+    }
+
+    private int pageSize(Integer count) {
+        if (count == null || count <= 0) {
+            return 100;
+        }
+        return Math.min(count, maxPageSize);
+    }
+
+    private String checkRange(Long fromId, Long toId) {
+        if (fromId == null || toId == null || fromId > toId) {
+            return "id范围不正确";
+        }
+        if (toId - fromId + 1 > maxPageSize) {
+            return "一次最多操作" + maxPageSize + "个id";
+        }
+        return null;
+    }
+
+    /**
+     * 比较一条缓存和数据库中的数据，一致时返回null
+     * @param cached 缓存的值，null表示缓存的是空值
+     * @param row 数据库中的数据，null表示数据库没有
+     */
+    private static CacheDiffPage.Mismatch compare(String key, Object cached, Object row) {
+        if (cached == null && row == null) {
+            return null;
+        }
+        if (cached == null) {
+            return new CacheDiffPage.Mismatch(key, CacheDiffPage.NULL_MARKER_BUT_IN_DB, null, row);
+        }
+        if (row == null) {
+            return new CacheDiffPage.Mismatch(key, CacheDiffPage.MISSING_IN_DB, null, null);
+        }
+        TreeSet<String> fields = diffFields(cached, row);
+        return fields.isEmpty() ? null : new CacheDiffPage.Mismatch(key, CacheDiffPage.STALE, fields, row);
+    }
+
+    /**
+     * 一次对比的统计：一致、值不同、缓存有数据库没有、缓存空值但数据库有
+     */
+    private static class DiffReport {
+        private final int sampled;
+        private final List<CacheDiffPage.Mismatch> mismatches;
+
+        private DiffReport(int sampled, List<CacheDiffPage.Mismatch> mismatches) {
+            this.sampled = sampled;
+            this.mismatches = mismatches;
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Integer> inconsistent = new LinkedHashMap<>();
+            List<Map<String, Object>> details = new ArrayList<>();
+            for (CacheDiffPage.Mismatch mismatch : mismatches) {
+                inconsistent.merge(mismatch.getType(), 1, Integer::sum);
+                if (details.size() < MAX_DETAILS) {
+                    Map<String, Object> detail = new LinkedHashMap<>();
+                    detail.put("key", mismatch.getKey());
+                    detail.put("type", mismatch.getType());
+                    if (mismatch.getFields() != null) {
+                        detail.put("fields", mismatch.getFields());
+                    }
+                    details.add(detail);
+                }
+            }
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("sampled", sampled);
+            data.put("consistent", sampled - mismatches.size());
+            data.put("inconsistent", inconsistent);
+            data.put("inconsistencyRate", sampled == 0 ? 0D : (double) mismatches.size() / sampled);
+            data.put("details", details);
+            return data;
+        }
+    }
+
+    //不同的字段名；列表按下标比较，长度不同记为 size
+    private static TreeSet<String> diffFields(Object cached, Object row) {
+        TreeSet<String> fields = new TreeSet<>();
+        if (cached instanceof List && row instanceof List) {
+            List<?> a = (List<?>) cached;
+            List<?> b = (List<?>) row;
+            if (a.size() != b.size()) {
+                fields.add("size");
+            }
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                for (String field : diffFields(a.get(i), b.get(i))) {
+                    fields.add("[" + i + "]." + field);
+                }
+            }
+            return fields;
+        }
+        Map<String, Object> a = BeanUtil.beanToMap(cached, false, false);
+        Map<String, Object> b = BeanUtil.beanToMap(row, false, false);
+        for (String ignored : IGNORED_FIELDS) {
+            a.remove(ignored);
+            b.remove(ignored);
+        }
+        a.forEach((field, value) -> {
+            if (!Objects.equals(value, b.get(field))) {
+                fields.add(field);
+            }
+        });
+        return fields;
+    }
+}
@@ -21,6 +21,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -42,7 +44,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result follow(Long followUserId, Boolean isFollow) {
         //1.获取登录用户ID
         Long userId = UserHolder.getUser().getId();
-        String key = "follows:" + userId;
+        String key = FOLLOWS_KEY + userId;
         //2.判断是关注还是取关
         if (isFollow) {
             //3.关注，新增数据
@@ -83,11 +85,14 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long id) {
         //1.获取登录用户ID
         Long userId = UserHolder.getUser().getId();
-        //2.求交集
-        String key = "follows:" + userId;
-        String key2 = "follows:" + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if(intersect != null || intersect.isEmpty()) {
+        //2.求交集：两个用户的key在集群中可能位于不同slot，SINTER会报CROSSSLOT，分别读取后在本地求交集
+        Set<String> intersect = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        Set<String> others = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + id);
+        if (intersect == null || others == null) {
+            return Result.ok(Collections.emptyList());
+        }
+        intersect.retainAll(others);
+        if (intersect.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
         //3.解析id集合
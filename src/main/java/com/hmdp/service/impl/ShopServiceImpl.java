@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -10,11 +11,16 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.HmdpCached;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.CacheManager;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.geo.Distance;
@@ -25,12 +31,13 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -57,29 +64,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    //更新店铺后直接按版本号写入缓存，关闭时改为删除缓存
+    @Value("${hmdp.cache.write-through:true}")
+    private boolean writeThrough;
+
+    @PostConstruct
+    private void init() {
+        //店铺缓存按版本号写入，读库较早的重建和预热不会覆盖更新后写入的新数据
+        cacheClient.enableVersion(CACHE_SHOP_KEY, Shop::getVersion);
+    }
 
     @Override
+    //缓存击穿————逻辑过期时间解决，切面先查缓存，未命中或过期时才执行方法体查库
+    @HmdpCached(prefix = CACHE_SHOP_KEY, type = Shop.class, ttl = 30,
+            strategy = CacheStrategy.LOGICAL_EXPIRE, filter = "shopBloomFilter", nullMessage = "店铺不存在！")
     public Result queryById(Long id) {
-//缓存穿透
-//        Shop shop = cacheClient.queryWithPassThrough(
-//                CACHE_SHOP_KEY,
-//                id,
-//                Shop.class,
-//                this::getById,
-//                CACHE_SHOP_TTL,
-//                TimeUnit.MINUTES);
-//缓存击穿————逻辑过期时间解决
-        Shop shop = cacheClient.queryWithLogicalExpire(
-                CACHE_SHOP_KEY,
-                id,
-                Shop.class,
-                this::getById,
-                CACHE_SHOP_TTL,
-                TimeUnit.MINUTES);
-
-
-//缓存击穿————互斥锁解决
-        //Shop shop  = queryWithMutex(id);
+//缓存穿透：strategy = CacheStrategy.PASS_THROUGH
+//缓存击穿————互斥锁解决：strategy = CacheStrategy.MUTEX
+        Shop shop = getById(id);
         //防止给前端返回null
         if (shop==null){
             return Result.fail("店铺不存在！");
@@ -89,9 +93,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
 
 
-    //建立线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR =
-            Executors.newFixedThreadPool(10);
 //    //缓存击穿————逻辑过期时间解决
 //    public Shop queryWithLogicalExpire(Long id){
 //        String key = CACHE_SHOP_KEY + id;
@@ -279,13 +280,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         Shop shop = getById(id);
         //Thread.sleep(20);
 
-        //2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-
-        //3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        //2.封装逻辑过期时间并写入redis，编码格式由CacheClient统一决定
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
 
@@ -314,13 +310,40 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("商铺id不能为空");
         }
-        //1.更新数据库
-        updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+ id);
+        //1.更新数据库，版本号加1；版本号只由数据库递增，忽略前端传入的值
+        shop.setVersion(null);
+        boolean updated = update(shop, new UpdateWrapper<Shop>().eq("id", id).setSql("version = version + 1"));
+        if (!updated) {
+            return Result.fail("店铺不存在！");
+        }
+        if (!writeThrough) {
+            //2.事务提交后再删除缓存并延迟双删，同时广播让各节点清掉本地L1
+            cacheInvalidator.invalidate(CACHE_SHOP_KEY + id);
+            return Result.ok();
+        }
+        //2.事务内读回整行，提交前一直持有行锁，读到的版本号就是本次更新的，版本号顺序与提交顺序一致
+        Shop latest = getById(id);
+        //3.事务提交后按版本号直接写入新数据，读请求不会因为删除缓存而未命中
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                writeShopCache(latest);
+            }
+        });
         return Result.ok();
     }
 
+    //写穿失败时退回到删除缓存，由CacheInvalidator负责重试
+    private void writeShopCache(Shop shop) {
+        String key = CACHE_SHOP_KEY + shop.getId();
+        try {
+            cacheClient.writeThrough(key, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } catch (Exception e) {
+            log.warn("写入店铺缓存失败，改为删除缓存, key={}", key, e);
+            cacheInvalidator.invalidate(key);
+        }
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1.判断是否需要根据坐标查询
@@ -366,11 +389,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             Distance distance = result.getDistance();
             distanceMap.put(shopIdStr, distance);
         });
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
+        // 5.根据id批量查询Shop，一次MGET，未命中的一次listByIds，结果按ids顺序返回
+        Map<Long, Shop> shopMap = cacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY,
+                ids,
+                Shop.class,
+                this::listByIds,
+                Shop::getId,
+                CACHE_SHOP_TTL,
+                TimeUnit.MINUTES);
+        // 5.1.缓存返回的是共享对象（本地缓存、热点副本、降级旧数据），复制一份再写入本次请求的距离
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        for (Shop cached : shopMap.values()) {
+            Shop shop = BeanUtil.copyProperties(cached, Shop.class);
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(shop);
         }
         // 6.返回
         return Result.ok(shops);
@@ -5,16 +5,26 @@ import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.springframework.core.io.ClassPathResource;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillConsumerGroup;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutMarker;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
@@ -22,12 +32,24 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_DEAD_ORDERS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
 
 /**
  * <p>
@@ -49,6 +71,14 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private RedissonClient redissonClient;
+    @Resource
+    private SeckillKeys seckillKeys;
+    @Resource
+    private SeckillConsumerGroup seckillConsumerGroup;
+    @Resource
+    private SeckillSoldOutMarker soldOutMarker;
+    @Resource
+    private SeckillStock seckillStock;
 
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
@@ -58,131 +88,395 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //秒杀脚本返回值对应的提示：1库存不足，2重复下单，4尚未开始，5已经结束
+    private static final Map<Integer, String> SECKILL_FAIL_MESSAGES = new HashMap<>();
+    static {
+        SECKILL_FAIL_MESSAGES.put(1, "库存不足");
+        SECKILL_FAIL_MESSAGES.put(2, "不能重复下单");
+        SECKILL_FAIL_MESSAGES.put(4, "秒杀尚未开始");
+        SECKILL_FAIL_MESSAGES.put(5, "秒杀已经结束");
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_SEGMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> SECKILL_SEGMENT_BORROW_SCRIPT;
+    static {
+        SECKILL_SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SEGMENT_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SECKILL_SEGMENT_SCRIPT.setResultType(Long.class);
+        SECKILL_SEGMENT_BORROW_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SEGMENT_BORROW_SCRIPT.setLocation(new ClassPathResource("seckill_segment_borrow.lua"));
+        SECKILL_SEGMENT_BORROW_SCRIPT.setResultType(Long.class);
+    }
+
+    //所有分片都没有消息时休眠的时间
+    @Value("${hmdp.seckill.consumer.idle-ms:100}")
+    private long idleMillis;
+    //每次XREADGROUP最多读取的条数，按批提交：每个券一条扣库存update、一次批量插入、一次ACK；1表示逐条处理
+    @Value("${hmdp.seckill.consumer.batch-size:100}")
+    private int batchSize;
+    //凑不满一批时，最早读到的消息最多等待多久就提交
+    @Value("${hmdp.seckill.consumer.flush-interval-ms:50}")
+    private long flushIntervalMillis;
+    //处理PendingList连续失败的次数上限，超过后退回主循环，分片被分走时可以及时释放，没分走时隔一段时间再处理
+    @Value("${hmdp.seckill.consumer.pending-max-attempts:3}")
+    private int pendingMaxAttempts;
+    @Value("${hmdp.seckill.consumer.pending-retry-ms:1000}")
+    private long pendingRetryMillis;
+    //本实例的消费线程数，分给本实例的分片再平均分给这些线程
+    @Value("${hmdp.seckill.consumer.threads:4}")
+    private int threads;
+    //关闭后本实例只接收下单请求，不消费订单流
+    @Value("${hmdp.seckill.consumer.enabled:true}")
+    private boolean consumerEnabled;
+
+    private ExecutorService seckillOrderExecutor;
+    private volatile boolean running = true;
 
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        batchSize = Math.max(1, batchSize);
+        pendingMaxAttempts = Math.max(1, pendingMaxAttempts);
+        threads = Math.max(1, threads);
+        //每个分片一个订单流，提前创建好消费者组
+        for (String streamKey : seckillKeys.streamKeys()) {
+            createGroup(streamKey);
+        }
+        if (!consumerEnabled) {
+            return;
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        //worker退出循环时提交缓冲中的消息并释放分片锁，其他实例在下一次心跳后接管
+        running = false;
+        if (seckillOrderExecutor == null) {
+            return;
+        }
+        seckillOrderExecutor.shutdown();
+        seckillOrderExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void createGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.streamCommands().xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8),
+                            SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            //BUSYGROUP：消费者组已存在
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                log.error("创建消费者组失败，stream:{}", streamKey, e);
+            }
+        }
     }
 
     private class VoucherOrderHandler implements Runnable {
         //它是一个实现了 Runnable 接口的线程类，用于从 Redis Stream 中读取消息并处理订单，替代了原来的阻塞队列。
-        private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
-        String queueName = "stream.orders";
+        //订单流按券id分片，每个分片同一时刻只由持有分片锁的一个worker消费：同一个券的订单按顺序处理，不同分片并行
+        //集群中各分片的stream在不同slot，不能用一条XREADGROUP同时阻塞读取，worker轮流读取自己负责的分片
+        private final int index;
+        //消费者名：实例名#序号，每个实例、每个线程都不同，各自有独立的PendingList
+        private final String consumerName;
+        //本worker持有消费锁的分片
+        private final Map<Integer, RLock> locks = new TreeMap<>();
+        //每个分片已读取、还没提交的消息，以及其中最早一条的读取时间
+        private final Map<String, List<MapRecord<String, Object, Object>>> buffers = new HashMap<>();
+        private final Map<String, Long> bufferedAt = new HashMap<>();
+        //PendingList没处理完的分片，以及下一次重试的时间
+        private final Map<String, Long> pendingRetryAt = new HashMap<>();
 
-        //run 方法是线程执行的主逻辑，while(true) 表示无限循环，确保线程持续监听消息队列，永不退出。
+        private VoucherOrderHandler(int index) {
+            this.index = index;
+            this.consumerName = seckillConsumerGroup.instanceName() + "#" + index;
+        }
+
+        //run 方法是线程执行的主逻辑，循环直到应用关闭，确保线程持续监听消息队列。
         @Override
         public void run() {
-            while (true) {
-                try {
-                    //1.获取消息队列中的订单信息
-                    List<MapRecord<String,Object,Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"), // 定义消费者组g1，消费者c1
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),// 每次读取1条，阻塞2秒
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())// 从最后消费位置读取
-                    );
-                    //2.判断消息是否成功
-                    if (list == null || list.isEmpty()) {
-                        //2.1.如果获取失败，说明没有消息，继续下一次循环
-                        continue;
+            try {
+                while (running) {
+                    boolean handled = false;
+                    try {
+                        //1.按最新的分配调整本worker负责的分片
+                        rebalance();
+                        //2.轮流读取每个分片，之前PendingList没处理完的分片到时间后先重试
+                        for (Integer shard : locks.keySet()) {
+                            String queueName = seckillKeys.streamKeyOfShard(shard);
+                            Long retryAt = pendingRetryAt.get(queueName);
+                            if (retryAt != null && System.currentTimeMillis() >= retryAt) {
+                                handlePendingList(queueName);
+                            }
+                            handled |= handleNext(queueName);
+                        }
+                    } catch (Exception e) {
+                        log.error("秒杀订单消费异常，consumer:{}", consumerName, e);
                     }
-                    //3.解析消息中的订单信息
-                    MapRecord<String , Object , Object> record = list.get(0);
-                    Map<Object,Object> value = record.getValue();//消息的具体内容（如 userId=123、voucherId=456 等），对应 Lua 脚本中 XADD 写入的键值对。
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(),true);//使用 Hutool 工具类将键值对映射为 VoucherOrder 对象
-                    //4.如果获取成功，可以下单
-                    handleVoucherOrder(voucherOrder);
-                    //5.ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    if (!handled) {
+                        //所有分片都没有新消息，短暂休眠；有凑了一半的批次时按提交间隔醒来
+                        boolean buffered = buffers.values().stream().anyMatch(buffer -> !buffer.isEmpty());
+                        sleep(buffered ? Math.min(idleMillis, flushIntervalMillis) : idleMillis);
+                    }
+                }
+            } finally {
+                for (Integer shard : new ArrayList<>(locks.keySet())) {
+                    release(shard);
+                }
+            }
+        }
+
+        //分给本实例的分片中，第 j 个由第 j % threads 个worker负责
+        private void rebalance() {
+            List<Integer> owned = seckillConsumerGroup.ownedShards();
+            Set<Integer> mine = new HashSet<>();
+            for (int j = index; j < owned.size(); j += threads) {
+                mine.add(owned.get(j));
+            }
+            //1.不再负责的分片：提交缓冲中的消息后释放锁
+            for (Integer shard : new ArrayList<>(locks.keySet())) {
+                if (!mine.contains(shard)) {
+                    release(shard);
+                }
+            }
+            //2.新分到的分片：抢锁，原来的worker还没释放时下一轮再试；抢到后接管其他消费者未确认的消息
+            for (Integer shard : mine) {
+                if (locks.containsKey(shard)) {
+                    continue;
+                }
+                RLock lock = redissonClient.getLock(seckillKeys.consumerLockKey(shard));
+                if (lock.tryLock()) {
+                    locks.put(shard, lock);
+                    log.info("开始消费秒杀订单分片，consumer:{}，shard:{}", consumerName, shard);
+                    takeOver(seckillKeys.streamKeyOfShard(shard));
+                }
+            }
+        }
+
+        private void release(Integer shard) {
+            String queueName = seckillKeys.streamKeyOfShard(shard);
+            List<MapRecord<String, Object, Object>> buffer = buffers.remove(queueName);
+            pendingRetryAt.remove(queueName);
+            try {
+                if (buffer != null && !buffer.isEmpty()) {
+                    handleRecords(queueName, buffer);
+                }
+            } catch (Exception e) {
+                //没提交的消息留在本消费者的PendingList中，由接管该分片的worker认领
+                log.error("释放分片前提交订单失败，consumer:{}，shard:{}", consumerName, shard, e);
+            } finally {
+                RLock lock = locks.remove(shard);
+                try {
+                    lock.unlock();
                 } catch (Exception e) {
-                    log.error("处理订单异常",e);
-                    handlePendingList();
+                    //锁已经过期，或者redis不可用，锁到期后自动释放
+                    log.warn("释放分片锁失败，consumer:{}，shard:{}", consumerName, shard, e);
+                }
+                log.info("停止消费秒杀订单分片，consumer:{}，shard:{}", consumerName, shard);
+            }
+        }
+
+        //认领其他消费者（已退出的实例、换了分片的worker）未确认的消息，和自己的PendingList一起处理
+        private void takeOver(String queueName) {
+            while (running && claimPending(queueName) > 0) {
+                handlePendingList(queueName);
+            }
+            handlePendingList(queueName);
+            //没有未确认消息的其他消费者不再需要，删掉避免消费者组越积越多
+            stringRedisTemplate.opsForStream().consumers(queueName, SECKILL_ORDER_GROUP).stream()
+                    .filter(consumer -> !consumerName.equals(consumer.consumerName()) && consumer.pendingCount() == 0)
+                    .forEach(consumer -> stringRedisTemplate.opsForStream()
+                            .deleteConsumer(queueName, Consumer.from(SECKILL_ORDER_GROUP, consumer.consumerName())));
+        }
+
+        //持有分片锁时没有别的worker在处理这个分片，其他消费者的未确认消息可以直接认领
+        private int claimPending(String queueName) {
+            List<RecordId> ids = new ArrayList<>();
+            for (PendingMessage pending : stringRedisTemplate.opsForStream()
+                    .pending(queueName, SECKILL_ORDER_GROUP, Range.unbounded(), batchSize * 10L)) {
+                if (!consumerName.equals(pending.getConsumerName())) {
+                    ids.add(pending.getId());
+                }
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            stringRedisTemplate.execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                    .xClaimJustId(queueName.getBytes(StandardCharsets.UTF_8), SECKILL_ORDER_GROUP, consumerName,
+                            RedisStreamCommands.XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+            return ids.size();
+        }
+
+        //从一个分片读取消息，凑满一批或等待超时后提交，返回是否读到了新消息
+        private boolean handleNext(String queueName) {
+            List<MapRecord<String, Object, Object>> buffer = buffers.computeIfAbsent(queueName, k -> new ArrayList<>());
+            try {
+                //1.获取消息队列中的订单信息，最多补满一批，不阻塞，没有消息就轮到下一个分片
+                List<MapRecord<String, Object, Object>> list = read(consumerName, queueName, ReadOffset.lastConsumed(), batchSize - buffer.size());
+                //2.判断消息是否成功
+                boolean received = list != null && !list.isEmpty();
+                if (received) {
+                    if (buffer.isEmpty()) {
+                        bufferedAt.put(queueName, System.currentTimeMillis());
+                    }
+                    buffer.addAll(list);
+                }
+                //3.凑满一批，或者最早的消息已经等了足够久，下单并ACK
+                if (!buffer.isEmpty() && (buffer.size() >= batchSize
+                        || System.currentTimeMillis() - bufferedAt.get(queueName) >= flushIntervalMillis)) {
+                    List<MapRecord<String, Object, Object>> records = new ArrayList<>(buffer);
+                    buffer.clear();
+                    handleRecords(queueName, records);
                 }
+                return received;
+            } catch (Exception e) {
+                log.error("处理订单异常，stream:{}", queueName, e);
+                //已读取的消息都在PendingList中，清空缓冲后统一重新处理
+                buffer.clear();
+                handlePendingList(queueName);
+                return true;
             }
         }
 
-        private void handlePendingList() {
-            while (true) {
+        //处理PendingList，连续失败 pendingMaxAttempts 次后返回，留给主循环稍后重试
+        private void handlePendingList(String queueName) {
+            int failures = 0;
+            while (running) {
                 try {
-                    //1.获取PendingList队列中的订单信息
-                    List<MapRecord<String,Object,Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            // 关键修改：使用 "0-0" 作为读取偏移量
-                            StreamOffset.create(queueName, ReadOffset.from("0-0"))
-                    );
+                    //1.获取PendingList队列中的订单信息，使用 "0-0" 作为读取偏移量
+                    List<MapRecord<String,Object,Object>> list = read(consumerName, queueName, ReadOffset.from("0-0"), batchSize);
                     //2.判断消息是否成功
                     if (list == null || list.isEmpty()) {
                         //2.1.如果获取失败，说明PendingList没有消息，退出循环
+                        pendingRetryAt.remove(queueName);
                         break;
                     }
-                    //3.解析消息中的订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //4.处理订单
-                    handleVoucherOrder(voucherOrder);//
-                    //5.ACK确认，存放已读取但未确认（.acknowledge）的消息，用于处理消费者故障恢复后重新消费未完成的消息。
+                    //3.处理订单并ACK，存放已读取但未确认（.acknowledge）的消息，用于处理消费者故障恢复后重新消费未完成的消息。
                         //Redis 会将该消息从消费者组的「Pending List」（未确认消息列表）中移除，避免后续重复处理。
-                        //若不确认，消息会留在 Pending List 中，消费者重启后会重新处理，可能导致订单重复创建。
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", record.getId());
+                        //若不确认，消息会留在 Pending List 中，消费者重启后会重新处理，下单前会按一人一单检查，不会重复创建订单。
+                    handleRecords(queueName, list);
+                    failures = 0;
                 } catch (Exception e) {
-                    log.error("处理PendingList订单异常", e);
-                    // 短暂休眠，避免无限重试导致CPU占用过高
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException interruptedException) {
-                        interruptedException.printStackTrace();
+                    log.error("处理PendingList订单异常，stream:{}", queueName, e);
+                    if (++failures >= pendingMaxAttempts) {
+                        //消息留在PendingList中，回到主循环：分片被分走时释放锁交给新的worker，否则到时间后再处理
+                        pendingRetryAt.put(queueName, System.currentTimeMillis() + pendingRetryMillis);
+                        return;
                     }
+                    // 短暂休眠，避免无限重试导致CPU占用过高
+                    sleep(100);
                 }
             }
         }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
     }
 
-    //无限循环处理 Pending List 中的消息（已读取但未 ACK 的消息），直到所有未确认消息处理完毕。
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //获取用户
-        Long userId = voucherOrder.getUserId();
-        //1.创建锁对象
-        RLock lock = redissonClient.getLock("order:" + userId);
-        //2.获取锁
-        boolean isLock = lock.tryLock();
-
-        if (!isLock) {
-            //获取锁失败，返回失败
-            log.error("不允许重复下单");
-            return;
+    /**
+     * 从订单流读取一批消息，下单并ACK
+     * @param queueName 订单流
+     * @param count 最多读取的条数，1表示逐条处理
+     * @return 处理的消息数
+     */
+    public int consume(String queueName, int count) {
+        List<MapRecord<String, Object, Object>> list = read(seckillConsumerGroup.instanceName(), queueName, ReadOffset.lastConsumed(), count);
+        if (list == null || list.isEmpty()) {
+            return 0;
         }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        }finally {
-            //释放锁
-            lock.unlock();
+        handleRecords(queueName, list);
+        return list.size();
+    }
+
+    private List<MapRecord<String, Object, Object>> read(String consumerName, String queueName, ReadOffset offset, int count) {
+        return stringRedisTemplate.opsForStream().read(
+                Consumer.from(SECKILL_ORDER_GROUP, consumerName), // 消费者组g1中的消费者
+                StreamReadOptions.empty().count(count),
+                StreamOffset.create(queueName, offset)
+        );
+    }
+
+    //解析消息中的订单信息，下单后一次ACK整批消息；数据库库存不足没有创建的订单先转入死信流再ACK
+    private void handleRecords(String queueName, List<MapRecord<String, Object, Object>> records) {
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        Map<Long, MapRecord<String, Object, Object>> recordOfOrder = new HashMap<>(records.size() * 2);
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            //消息的具体内容（如 userId=123、voucherId=456 等），对应 Lua 脚本中 XADD 写入的键值对，用 Hutool 映射为 VoucherOrder 对象
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            voucherOrders.add(voucherOrder);
+            recordOfOrder.put(voucherOrder.getId(), record);
+            ids[i] = record.getId();
+        }
+        //单条消息也走批量下单：一人一单由数据库查询保证，不依赖用户锁，下单失败抛出异常时整批都不ACK
+        List<VoucherOrder> failed = proxy.createVoucherOrders(voucherOrders);
+        //死信写入失败时抛出异常，整批留在PendingList中重试；已创建的订单重试时按一人一单跳过
+        for (VoucherOrder voucherOrder : failed) {
+            deadLetter(queueName, recordOfOrder.get(voucherOrder.getId()));
         }
+        stringRedisTemplate.opsForStream().acknowledge(queueName, SECKILL_ORDER_GROUP, ids);
+    }
 
+    private void deadLetter(String queueName, MapRecord<String, Object, Object> record) {
+        Map<String, String> value = new HashMap<>();
+        record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+        value.put("stream", queueName);
+        value.put("recordId", record.getId().getValue());
+        value.put("reason", "数据库库存不足");
+        stringRedisTemplate.opsForStream().add(StreamRecords.string(value).withStreamKey(SECKILL_DEAD_ORDERS_KEY));
+        log.error("订单未创建，已转入死信流，stream:{}，订单:{}", queueName, value);
     }
 
+    //事务代理，后台消费线程中拿不到AopContext，注入自身的代理
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
+
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0.本机已知售罄，直接返回，不访问redis
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         //获取用户id
         Long userId = UserHolder.getUser().getId();
         //获取订单id
         long orderId = redisIdWorker.nextId("order");
-        //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(),
-                userId.toString(),
-                String.valueOf(orderId)
-        );
+        //1.执行lua脚本，库存、已购用户、订单流三个key在同一个分片（同一个slot）
+        int segments = seckillStock.segments(voucherId);
+        Long result;
+        if (segments == 1) {
+            result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(seckillKeys.stockKey(voucherId), seckillKeys.orderKey(voucherId),
+                            seckillKeys.streamKey(voucherId), seckillKeys.windowKey(voucherId)),
+                    voucherId.toString(),
+                    userId.toString(),
+                    String.valueOf(orderId)
+            );
+        } else {
+            //1.1.分段库存，各段在不同的分片上
+            result = seckillSegmented(voucherId, userId, orderId, segments);
+        }
         //2.判断结果时为0
         int r = result.intValue();
         if(r != 0){
             //2.1.不为0，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            if (r == 1) {
+                //库存不足，标记售罄并通知其它节点，之后的请求不再执行脚本
+                soldOutMarker.markSoldOut(voucherId);
+            }
+            return Result.fail(SECKILL_FAIL_MESSAGES.getOrDefault(r, "秒杀失败"));
         }
 
         //不需要把下单信息保存到阻塞队列了，lua脚本有直接的队列了
@@ -199,14 +493,53 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
 
-        //3.获取代理对象（事务）
-        proxy = (IVoucherOrderService)AopContext.currentProxy();
-
-        //4.返回订单id
+        //3.返回订单id
         return Result.ok(orderId);
     }
 
 
+    //分段券：先在用户所属的段扣减；所属段没有库存时依次向后面的段借，都借不到则撤销预占的用户
+    private Long seckillSegmented(Long voucherId, Long userId, long orderId, int segments) {
+        int home = SeckillStock.homeSegment(userId, segments);
+        String[] args = {voucherId.toString(), userId.toString(), String.valueOf(orderId)};
+        Long result = stringRedisTemplate.execute(
+                SECKILL_SEGMENT_SCRIPT,
+                Arrays.asList(seckillKeys.segmentStockKey(voucherId, home), seckillKeys.segmentOrderKey(voucherId, home),
+                        seckillKeys.segmentStreamKey(voucherId, home), seckillKeys.segmentWindowKey(voucherId, home)),
+                (Object[]) args);
+        //0成功，2重复下单，3所属段库存不足、已预占用户，4尚未开始，5已经结束
+        if (result == null || result != 3) {
+            return result;
+        }
+        try {
+            for (int i = 1; i < segments; i++) {
+                int segment = (home + i) % segments;
+                Long borrowed = stringRedisTemplate.execute(
+                        SECKILL_SEGMENT_BORROW_SCRIPT,
+                        Arrays.asList(seckillKeys.segmentStockKey(voucherId, segment), seckillKeys.segmentStreamKey(voucherId, segment)),
+                        (Object[]) args);
+                if (borrowed != null && borrowed == 0) {
+                    return 0L;
+                }
+            }
+        } catch (RuntimeException e) {
+            releaseReservation(voucherId, userId, home);
+            throw e;
+        }
+        //所有段都没有库存，撤销预占，补库存后用户还可以再抢
+        releaseReservation(voucherId, userId, home);
+        return 1L;
+    }
+
+    private void releaseReservation(Long voucherId, Long userId, int home) {
+        try {
+            stringRedisTemplate.opsForSet().remove(seckillKeys.segmentOrderKey(voucherId, home), userId.toString());
+        } catch (Exception e) {
+            //撤销失败时该用户在这个券上被视为已购买，不会超卖
+            log.error("撤销预占失败，voucherId:{}，userId:{}", voucherId, userId, e);
+        }
+    }
+
     @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
 //4.限制一人一单
@@ -236,4 +569,68 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
             save(voucherOrder);
         }
-}
\ No newline at end of file
+
+    @Override
+    @Transactional
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        //1.按优惠券分组，同一个券一批只扣一次库存
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        List<VoucherOrder> failed = new ArrayList<>();
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            //2.限制一人一单：一次查出这批用户中已经下过单的（消息重复投递时订单已存在）
+            Set<Long> userIds = entry.getValue().stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+            Set<Long> bought = query()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .in("user_id", userIds)
+                    .list()
+                    .stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+            List<VoucherOrder> orders = new ArrayList<>(entry.getValue().size());
+            for (VoucherOrder voucherOrder : entry.getValue()) {
+                //同一批中同一个用户也只保留一单
+                if (bought.add(voucherOrder.getUserId())) {
+                    orders.add(voucherOrder);
+                } else {
+                    log.error("用户已购买，每位用户只限购买一次！userId:{}", voucherOrder.getUserId());
+                }
+            }
+            if (orders.isEmpty()) {
+                continue;
+            }
+            //3.扣减库存
+            int deducted = deductStock(voucherId, orders.size());
+            if (deducted < orders.size()) {
+                log.error("扣除失败,库存不足，voucherId:{}，{}单未创建", voucherId, orders.size() - deducted);
+                failed.addAll(orders.subList(deducted, orders.size()));
+            }
+            toSave.addAll(orders.subList(0, deducted));
+        }
+        //4.批量插入
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+        return failed;
+    }
+
+    //扣减count个库存，库存不足时扣掉剩下的全部，返回实际扣减的数量
+    private int deductStock(Long voucherId, int count) {
+        int want = count;
+        while (want > 0) {
+            boolean success = seckillVoucherService
+                    .update()
+                    .setSql("stock = stock - " + want)
+                    .eq("voucher_id", voucherId).ge("stock", want)
+                    .update();
+            if (success) {
+                return want;
+            }
+            //库存不够，按读到的剩余库存重试；读取和扣减之间被其它消费者扣走时条件更新失败，重新读取
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+            want = seckillVoucher == null || seckillVoucher.getStock() == null ? 0 : Math.min(seckillVoucher.getStock(), count);
+        }
+        return 0;
+    }
+}
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
@@ -7,14 +8,23 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.HmdpCacheEvict;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.SeckillSoldOutMarker;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_TTL;
 
 /**
  * <p>
@@ -30,18 +40,45 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillSoldOutMarker soldOutMarker;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    @Resource
+    private CacheClient cacheClient;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
-        // 返回结果
-        return Result.ok(vouchers);
+        //1.查询优惠券信息，券的基本信息和秒杀时间很少变化，走缓存
+        List<Voucher> vouchers = cacheClient.queryListWithPassThrough(CACHE_SHOP_VOUCHER_KEY, shopId, Voucher.class,
+                () -> getBaseMapper().queryVoucherOfShop(shopId), CACHE_SHOP_VOUCHER_TTL, TimeUnit.MINUTES);
+        if (vouchers == null) {
+            return Result.fail("数据不存在！");
+        }
+        //2.秒杀库存每次下单都在变，不能用缓存里的值，从redis读最新的剩余库存
+        List<Voucher> result = new ArrayList<>(vouchers.size());
+        for (Voucher voucher : vouchers) {
+            Integer remaining = voucher.getStock() == null ? null : seckillStock.remaining(voucher.getId());
+            if (remaining == null) {
+                result.add(voucher);
+                continue;
+            }
+            //缓存的对象可能被本地缓存共享，复制一份再改
+            result.add(BeanUtil.copyProperties(voucher, Voucher.class).setStock(remaining));
+        }
+        return Result.ok(result);
+    }
+
+    @Override
+    @HmdpCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#entity.shopId")
+    public boolean save(Voucher entity) {
+        return super.save(entity);
     }
 
     @Override
     @Transactional
+    @HmdpCacheEvict(prefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -52,9 +89,51 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        //保存秒杀库存到redis中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),
-                voucher.getStock().toString());
+        //保存秒杀库存和时间窗口到redis中，热门券可以按分段保存
+        seckillStock.init(voucher.getId(), voucher.getStock(), voucher.getSegments(),
+                voucher.getBeginTime(), voucher.getEndTime());
+        //清除可能残留的售罄标记
+        soldOutMarker.clear(voucher.getId());
+    }
+
+    @Override
+    @Transactional
+    public Result restockSeckillVoucher(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0");
+        }
+        //1.数据库增加库存
+        boolean success = seckillVoucherService
+                .update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!success) {
+            return Result.fail("秒杀券不存在");
+        }
+        //2.事务提交后再改redis：回滚时redis不能多出库存，提交前也不能让秒杀脚本卖出数据库里还没有的库存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    applyRestock(voucherId, count);
+                }
+            });
+        } else {
+            applyRestock(voucherId, count);
+        }
+        //3.店铺优惠券列表里有库存，删掉缓存；事务中的失效由 CacheInvalidator 在提交后执行
+        Voucher voucher = getById(voucherId);
+        if (voucher != null) {
+            cacheInvalidator.invalidate(CACHE_SHOP_VOUCHER_KEY + voucher.getShopId());
+        }
+        return Result.ok();
+    }
 
+    private void applyRestock(Long voucherId, int count) {
+        //1.redis增加库存，秒杀脚本按redis中的库存判断；分段券平均加到各段
+        seckillStock.add(voucherId, count);
+        //2.清除各节点的售罄标记
+        soldOutMarker.clear(voucherId);
     }
 }
@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按访问频率调整每个key的TTL：热的key缓存得久、少重建，冷的key早点过期、少占内存
+ * 1.频率：Count-Min Sketch 计数，累计记录次数达到 宽度*10 时所有计数减半（衰减），只反映最近的访问热度
+ *   内存固定为 深度*宽度 个long，与key的数量无关
+ * 2.TTL：访问频率 f 在 [1, hotHits] 之间按对数插值，得到 [minFactor, maxFactor] 之间的倍数，乘以原TTL
+ *   factor = minFactor * (maxFactor/minFactor) ^ (ln f / ln hotHits)
+ * 3.内存节省：每次带TTL的写入按 字节数*TTL 累计，和同样写入使用固定TTL时对比
+ *   按利特尔法则，平均常驻内存 = 写入速率 * 每次写入的字节数 * TTL，两者之差除以统计时长即平均少占用的字节数
+ *   这是逐次写入的对比：热key因TTL变长少写的次数、冷key因TTL变短多写的次数都没有计入，只能看趋势，
+ *   端到端的效果见 AdaptiveTtlTest 中的模拟
+ */
+public class AdaptiveTtl {
+
+    private final boolean enabled;
+    private final double minFactor;
+    private final double maxFactor;
+    private final long hotHits;
+    private final int width;
+    private final long resetThreshold;
+    //未开启时为null
+    private final CountMinSketch sketch;
+    private final AtomicLong recorded = new AtomicLong();
+    private final LongAdder resets = new LongAdder();
+
+    private final long since = System.currentTimeMillis();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder extended = new LongAdder();
+    private final LongAdder shortened = new LongAdder();
+    //字节*毫秒，long足够：1KB的值、30分钟TTL，可累计约五十亿次写入
+    private final LongAdder baselineByteMillis = new LongAdder();
+    private final LongAdder adaptiveByteMillis = new LongAdder();
+
+    public AdaptiveTtl(boolean enabled, double minFactor, double maxFactor, long hotHits, int width) {
+        if (minFactor <= 0 || minFactor > 1 || maxFactor < 1) {
+            throw new IllegalArgumentException("TTL倍数范围必须满足 0 < min-factor <= 1 <= max-factor");
+        }
+        this.enabled = enabled;
+        this.minFactor = minFactor;
+        this.maxFactor = maxFactor;
+        this.hotHits = Math.max(2, hotHits);
+        this.width = CountMinSketch.widthOf(width);
+        this.resetThreshold = this.width * 10L;
+        this.sketch = enabled ? new CountMinSketch(this.width) : null;
+    }
+
+    /**
+     * 记录一次读取
+     */
+    public void record(String key) {
+        if (!enabled) {
+            return;
+        }
+        sketch.add(key);
+        if (recorded.incrementAndGet() >= resetThreshold) {
+            age();
+        }
+    }
+
+    /**
+     * 最近的访问次数估计值
+     */
+    public long frequency(String key) {
+        if (!enabled) {
+            return 0;
+        }
+        return sketch.estimate(key);
+    }
+
+    /**
+     * 按访问频率调整后的TTL，只用于逻辑过期时长，不计入内存统计
+     */
+    public long ttl(String key, long baseMillis) {
+        if (!enabled || baseMillis <= 0) {
+            return baseMillis;
+        }
+        return Math.max(1L, Math.round(baseMillis * factor(frequency(key))));
+    }
+
+    /**
+     * 调整带真实过期时间的写入，并计入内存统计
+     * @param bytes key和value的字节数
+     */
+    public long ttlForWrite(String key, long baseMillis, int bytes) {
+        long ttl = ttl(key, baseMillis);
+        writes.increment();
+        if (ttl > baseMillis) {
+            extended.increment();
+        } else if (ttl < baseMillis) {
+            shortened.increment();
+        }
+        baselineByteMillis.add(bytes * baseMillis);
+        adaptiveByteMillis.add(bytes * ttl);
+        return ttl;
+    }
+
+    double factor(long frequency) {
+        if (frequency <= 1) {
+            return minFactor;
+        }
+        if (frequency >= hotHits) {
+            return maxFactor;
+        }
+        double position = Math.log(frequency) / Math.log(hotHits);
+        return minFactor * Math.pow(maxFactor / minFactor, position);
+    }
+
+    //所有计数减半，较早的访问逐渐失去权重
+    private void age() {
+        synchronized (sketch) {
+            if (recorded.get() < resetThreshold) {
+                return;
+            }
+            sketch.halve();
+            recorded.set(0);
+            resets.increment();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("minFactor", minFactor);
+        stats.put("maxFactor", maxFactor);
+        stats.put("hotHits", hotHits);
+        stats.put("sketchWidth", width);
+        stats.put("agings", resets.sum());
+        stats.put("writes", writes.sum());
+        stats.put("extended", extended.sum());
+        stats.put("shortened", shortened.sum());
+        long baseline = baselineByteMillis.sum();
+        long adaptive = adaptiveByteMillis.sum();
+        long elapsed = Math.max(1L, System.currentTimeMillis() - since);
+        Map<String, Object> memory = new HashMap<>();
+        memory.put("baselineAvgBytes", baseline / elapsed);
+        memory.put("adaptiveAvgBytes", adaptive / elapsed);
+        memory.put("savedAvgBytes", (baseline - adaptive) / elapsed);
+        memory.put("savedRatio", baseline == 0 ? 0D : 1 - (double) adaptive / baseline);
+        stats.put("memory", memory);
+        return stats;
+    }
+}
@@ -0,0 +1,347 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+import cn.hutool.core.util.ReflectUtil;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编码
+ * 格式：魔数(1) + 版本(1) + 逻辑过期时间毫秒(8，定长) + 重建耗时毫秒(4，定长，版本2起) + 数据
+ * 判断逻辑过期只需读取头部，不用反序列化数据部分；版本1的数据（没有重建耗时）仍可读取
+ * 数据部分按字段名排序后依次写入带类型标记的值，整数用变长编码，不写字段名；
+ * 对象前带4字节的字段结构指纹，实体类字段变化后旧数据解码失败，按未命中处理
+ */
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    //0xFE 不会出现在UTF-8文本的首字节，可与JSON格式区分
+    private static final byte MAGIC = (byte) 0xFE;
+    private static final byte VERSION_1 = 1;
+    private static final byte VERSION = 2;
+    private static final int HEADER_SIZE_V1 = 10;
+    private static final int HEADER_SIZE = 14;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_TRUE = 1;
+    private static final byte TAG_FALSE = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_DOUBLE = 5;
+    private static final byte TAG_STRING = 6;
+    private static final byte TAG_DATETIME = 7;
+    private static final byte TAG_BEAN = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_JSON = 10;
+
+    private static final Map<Class<?>, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(byte[] raw) {
+        return raw.length >= HEADER_SIZE_V1 && raw[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return encodeWithExpire(value, 0L, 0L);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireAt, long delta) {
+        Writer out = new Writer();
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.writeFixedLong(expireAt);
+        out.writeFixedInt((int) Math.min(Integer.MAX_VALUE, Math.max(0L, delta)));
+        writeValue(out, value, true);
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> R decode(byte[] raw, Class<R> type) {
+        Reader in = reader(raw);
+        Object value = readValue(in, type);
+        return value == null || type.isInstance(value) ? type.cast(value) : Convert.convert(type, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <R> List<R> decodeList(byte[] raw, Class<R> type) {
+        Reader in = reader(raw);
+        byte tag = in.readByte();
+        if (tag == TAG_NULL) {
+            return null;
+        }
+        if (tag != TAG_LIST) {
+            throw new IllegalStateException("缓存数据不是列表");
+        }
+        int size = in.readVarInt();
+        List<R> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object value = readValue(in, type);
+            list.add(value == null || type.isInstance(value) ? (R) value : Convert.convert(type, value));
+        }
+        return list;
+    }
+
+    @Override
+    public long readExpireAt(byte[] raw) {
+        checkHeader(raw);
+        return ByteBuffer.wrap(raw, 2, 8).getLong();
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] raw, Class<R> type) {
+        RedisData redisData = new RedisData();
+        long expireAt = readExpireAt(raw);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        redisData.setDelta(raw[1] == VERSION_1 ? 0L : ByteBuffer.wrap(raw, 10, 4).getInt());
+        redisData.setData(decode(raw, type));
+        return redisData;
+    }
+
+    private Reader reader(byte[] raw) {
+        checkHeader(raw);
+        return new Reader(raw, raw[1] == VERSION_1 ? HEADER_SIZE_V1 : HEADER_SIZE);
+    }
+
+    private void checkHeader(byte[] raw) {
+        if (!supports(raw) || !(raw[1] == VERSION_1 || raw[1] == VERSION && raw.length >= HEADER_SIZE)) {
+            throw new IllegalStateException("不支持的缓存数据格式");
+        }
+    }
+
+    //写入一个带类型标记的值，只有最外层的对象按字段展开，嵌套的复杂对象退化为JSON字符串
+    private void writeValue(Writer out, Object value, boolean topLevel) {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.write(TAG_INT);
+            out.writeVarLong(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            out.write(TAG_LONG);
+            out.writeVarLong((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.write(TAG_DOUBLE);
+            out.writeFixedLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof CharSequence) {
+            out.write(TAG_STRING);
+            out.writeString(value.toString());
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime time = (LocalDateTime) value;
+            out.write(TAG_DATETIME);
+            out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+            out.writeVarLong(time.getNano());
+        } else if (topLevel && value instanceof Collection) {
+            Collection<?> list = (Collection<?>) value;
+            out.write(TAG_LIST);
+            out.writeVarLong(list.size());
+            for (Object element : list) {
+                writeValue(out, element, true);
+            }
+        } else if (topLevel && !(value instanceof Map) && !value.getClass().isArray()) {
+            Schema schema = schemaOf(value.getClass());
+            out.write(TAG_BEAN);
+            out.writeFixedInt(schema.fingerprint);
+            for (Field field : schema.fields) {
+                writeValue(out, ReflectUtil.getFieldValue(value, field), false);
+            }
+        } else {
+            out.write(TAG_JSON);
+            out.writeString(JSONUtil.toJsonStr(value));
+        }
+    }
+
+    private Object readValue(Reader in, Class<?> type) {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_INT:
+                return (int) in.readVarLong();
+            case TAG_LONG:
+                return in.readVarLong();
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(in.readFixedLong());
+            case TAG_STRING:
+                return in.readString();
+            case TAG_DATETIME:
+                return LocalDateTime.ofEpochSecond(in.readVarLong(), (int) in.readVarLong(), ZoneOffset.UTC);
+            case TAG_BEAN:
+                return readBean(in, type);
+            case TAG_JSON:
+                return Convert.convert(type, JSONUtil.parse(in.readString()));
+            default:
+                throw new IllegalStateException("未知的数据类型标记：" + tag);
+        }
+    }
+
+    private Object readBean(Reader in, Class<?> type) {
+        Schema schema = schemaOf(type);
+        if (in.readFixedInt() != schema.fingerprint) {
+            //实体类字段发生了变化，旧数据不再可信
+            throw new IllegalStateException("缓存数据结构与 " + type.getSimpleName() + " 不一致");
+        }
+        Object bean = ReflectUtil.newInstance(type);
+        for (Field field : schema.fields) {
+            Object value = readValue(in, field.getType());
+            if (value != null && !field.getType().isInstance(value)) {
+                value = Convert.convert(field.getType(), value);
+            }
+            if (value != null || !field.getType().isPrimitive()) {
+                ReflectUtil.setFieldValue(bean, field, value);
+            }
+        }
+        return bean;
+    }
+
+    private static Schema schemaOf(Class<?> type) {
+        return SCHEMAS.computeIfAbsent(type, Schema::new);
+    }
+
+    /**
+     * 类的字段结构：按字段名排序的非静态、非transient字段，以及由字段名和类型计算的指纹
+     */
+    private static class Schema {
+        private final Field[] fields;
+        private final int fingerprint;
+
+        private Schema(Class<?> type) {
+            Field[] all = Arrays.stream(ReflectUtil.getFields(type))
+                    .filter(f -> !Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers()))
+                    .toArray(Field[]::new);
+            Arrays.sort(all, Comparator.comparing(Field::getName));
+            StringBuilder sb = new StringBuilder();
+            for (Field field : all) {
+                field.setAccessible(true);
+                sb.append(field.getName()).append(':').append(field.getType().getName()).append(';');
+            }
+            this.fields = all;
+            this.fingerprint = sb.toString().hashCode();
+        }
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+
+        private Writer() {
+            super(256);
+        }
+
+        private void writeFixedInt(int v) {
+            for (int i = 24; i >= 0; i -= 8) {
+                write((byte) (v >>> i));
+            }
+        }
+
+        private void writeFixedLong(long v) {
+            for (int i = 56; i >= 0; i -= 8) {
+                write((byte) (v >>> i));
+            }
+        }
+
+        //zigzag + 变长编码，小整数只占1~2个字节
+        private void writeVarLong(long v) {
+            long zigzag = (v << 1) ^ (v >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                write((byte) ((zigzag & 0x7F) | 0x80));
+                zigzag >>>= 7;
+            }
+            write((byte) zigzag);
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        private Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private byte readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalStateException("缓存数据被截断");
+            }
+            return buf[pos++];
+        }
+
+        private int readFixedInt() {
+            int v = 0;
+            for (int i = 0; i < 4; i++) {
+                v = (v << 8) | (readByte() & 0xFF);
+            }
+            return v;
+        }
+
+        private long readFixedLong() {
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (readByte() & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = readByte();
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private String readString() {
+            int len = readVarInt();
+            if (len < 0 || pos + len > buf.length) {
+                throw new IllegalStateException("缓存数据被截断");
+            }
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
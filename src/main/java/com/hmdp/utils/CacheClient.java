@@ -1,23 +1,63 @@
 package com.hmdp.utils;
 
-
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.CacheScanPage;
 import com.hmdp.entity.Shop;
+import io.lettuce.core.KeyScanCursor;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.ScanArgs;
+import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.cluster.api.async.RedisClusterAsyncCommands;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -25,31 +65,383 @@ import static com.hmdp.utils.RedisConstants.*;
 @Component
 public class CacheClient {
 
+    //带版本号写入，缓存中已有更新的版本时拒绝覆盖
+    private static final DefaultRedisScript<Long> SET_IF_NEWER_SCRIPT;
+    static {
+        SET_IF_NEWER_SCRIPT = new DefaultRedisScript<>();
+        SET_IF_NEWER_SCRIPT.setLocation(new ClassPathResource("cache_set_if_newer.lua"));
+        SET_IF_NEWER_SCRIPT.setResultType(Long.class);
+    }
+
     private final StringRedisTemplate stringRedisTemplate;
+    //一级本地缓存，未开启时为null
+    private final LocalCache localCache;
+    //所有可识别的编码，读取时按数据自动选择
+    private final List<CacheCodec> codecs;
+    //写入时使用的编码
+    private final CacheCodec writeCodec;
+    //读到旧编码的数据时，是否顺手按新编码改写
+    private final boolean migrateOnRead;
+    //同一个key的并发未命中/重建在本JVM内合并成一次
+    private final SingleFlight singleFlight = new SingleFlight();
+    //有界的重建线程池
+    private final CacheRebuildExecutor rebuildExecutor;
+    //TTL抖动与概率提前刷新
+    private final CacheExpiry expiry;
+    //热点key探测，未开启时为null
+    private final HotKeyDetector hotKeyDetector;
+    //热点key的短TTL本地副本，与L1独立，L1关闭时热点key也能走本地
+    private final LocalCache hotReplica;
+    //按key前缀统计的命中、耗时、重建、锁争用
+    private final CacheMetrics metrics = new CacheMetrics();
+    //开启了版本号的前缀，以及从数据中取版本号的方法
+    private final Map<String, Function<Object, Long>> versions = new ConcurrentHashMap<>();
+    //异步API使用的连接，第一次调用时从连接工厂取
+    private final RedisConnectionFactory connectionFactory;
+    private volatile RedisConnection asyncConnection;
+    //异步API中查库、抢锁等阻塞操作的线程池，不能占用Lettuce的IO线程
+    private final ThreadPoolExecutor asyncLoader;
+    //按访问频率调整每个key的TTL
+    private final AdaptiveTtl adaptiveTtl;
+    //所有redis访问都经过熔断器，打开或失败时读请求降级
+    private final RedisCircuitBreaker breaker;
+    //降级用的旧数据：最近读到/写入过的值，存活时间比L1长得多，只在redis不可用时读取
+    private final LocalCache staleCache;
+    //降级时直接查库的并发上限，超过等待时间仍拿不到许可的请求直接失败
+    private final Semaphore degradeLimiter;
+    private final long degradeWaitMillis;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisConnectionFactory connectionFactory,
+                       RedisMessageListenerContainer listenerContainer,
+                       CacheRebuildExecutor rebuildExecutor,
+                       RedisCircuitBreaker breaker,
+                       List<CacheCodec> codecs,
+                       CacheProperties properties) {
+        CacheProperties.Local local = properties.getLocal();
+        CacheProperties.Adaptive adaptive = properties.getAdaptiveTtl();
+        CacheProperties.EarlyRefresh earlyRefresh = properties.getEarlyRefresh();
+        CacheProperties.Hot hot = properties.getHot();
+        CacheProperties.Async async = properties.getAsync();
+        CacheProperties.Degrade degrade = properties.getDegrade();
         this.stringRedisTemplate = stringRedisTemplate;
+        this.breaker = breaker;
+        this.staleCache = new LocalCache(degrade.getStaleCapacity(), TimeUnit.SECONDS.toMillis(degrade.getStaleTtlSeconds()));
+        this.degradeLimiter = new Semaphore(degrade.getDbConcurrency());
+        this.degradeWaitMillis = degrade.getDbWaitMs();
+        this.connectionFactory = connectionFactory;
+        AtomicInteger threadIndex = new AtomicInteger();
+        //队列满时直接拒绝，由返回的future带出异常，不会退化成在IO线程上查库
+        this.asyncLoader = new ThreadPoolExecutor(async.getLoaderThreads(), async.getLoaderThreads(), 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(async.getQueueCapacity()), r -> {
+            Thread t = new Thread(r, "cache-async-loader-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.asyncLoader.allowCoreThreadTimeOut(true);
+        this.rebuildExecutor = rebuildExecutor;
+        this.expiry = new CacheExpiry(properties.getTtlJitter(), earlyRefresh.isEnabled(), earlyRefresh.getBeta());
+        this.adaptiveTtl = new AdaptiveTtl(adaptive.isEnabled(), adaptive.getMinFactor(), adaptive.getMaxFactor(),
+                adaptive.getHotHits(), adaptive.getSketchWidth());
+        this.codecs = codecs;
+        String codecName = properties.getCodec();
+        this.writeCodec = codecs.stream()
+                .filter(codec -> codec.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("未知的缓存编码：" + codecName));
+        this.migrateOnRead = properties.isCodecMigrateOnRead();
+        this.localCache = local.isEnabled() ? new LocalCache(local.getCapacity(), TimeUnit.SECONDS.toMillis(local.getTtlSeconds())) : null;
+        this.hotKeyDetector = hot.isEnabled()
+                ? new HotKeyDetector(hot.getWindowSeconds(), hot.getThresholdQps(), hot.getSampleRate(), 2048, hot.getMaxKeys()) : null;
+        this.hotReplica = hot.isEnabled() ? new LocalCache(hot.getMaxKeys(), hot.getLocalTtlMs()) : null;
+        if (localCache != null || hotReplica != null) {
+            //订阅失效广播，其它节点删除缓存时同步删掉本机的L1和热点副本
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                    new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
     }
 
     public void set(String key, Object value,Long time, TimeUnit unit ) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        //TTL按访问频率调整后再加随机抖动，同一批写入的key不会同时过期
+        byte[] raw = writeCodec.encode(value);
+        setRaw(key, raw, ttlForWrite(key, unit.toMillis(time), raw.length), TimeUnit.MILLISECONDS);
+        invalidateLocal(key);
     }
 
+    /**
+     * 读取列表类型的缓存，未命中返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <R> List<R> getList(String key, Class<R> type) {
+        long start = System.nanoTime();
+        adaptiveTtl.record(key);
+        //热点列表（例如商铺类型）直接读本地副本
+        List<R> hot = getHot(key);
+        if (hot != null) {
+            metrics.record(key, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return hot;
+        }
+        byte[] raw;
+        try {
+            raw = getRaw(key);
+        } catch (RedisUnavailableException e) {
+            //redis不可用，有旧数据就用旧数据，没有按未命中交给调用方查库
+            metrics.record(key, CacheMetrics.Outcome.DEGRADED_STALE, start);
+            return (List<R>) staleCache.get(key);
+        }
+        if (raw == null || raw.length == 0) {
+            metrics.record(key, CacheMetrics.Outcome.MISS, start);
+            return null;
+        }
+        CacheCodec codec = codecOf(raw);
+        List<R> list = codec.decodeList(raw, type);
+        migrate(key, codec, list, 0L);
+        putHot(key, list);
+        staleCache.put(key, list);
+        metrics.record(key, CacheMetrics.Outcome.HIT, start);
+        return list;
+    }
 
+    /**
+     * 删除缓存，并广播给所有节点，让它们丢掉本地L1中的同一个key
+     */
+    public void delete(String key) {
+        delete(Collections.singletonList(key));
+    }
 
-    public void setWithLogicalExpire(String key, Object value,Long time, TimeUnit unit ) {
-        //设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+    /**
+     * 批量删除缓存，一次DEL；本机的本地缓存无论redis是否成功都会清掉
+     */
+    public void delete(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            breaker.run(() -> stringRedisTemplate.delete(keys));
+        } finally {
+            keys.forEach(this::invalidateLocal);
+        }
+        publishInvalidation(keys);
+    }
+
+    //通知其它节点丢掉本地L1和热点副本中的这些key
+    private void publishInvalidation(Collection<String> keys) {
+        if (localCache != null || hotReplica != null) {
+            breaker.run(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                keys.forEach(key -> connection.publish(keyBytes(CACHE_INVALIDATE_CHANNEL), keyBytes(key)));
+                return null;
+            }));
+        }
+    }
+
+    /**
+     * 为某个前缀开启版本号：该前缀下的逻辑过期数据写入时带上版本号，
+     * 由Lua脚本比较后写入，读库较早的重建、预热不会覆盖更新之后写入的新数据
+     * 版本号单独存放在 ver:{完整key} 中，删除缓存时保留，防止删除后旧数据被回填；版本号key按两倍逻辑TTL过期
+     * @param versionGetter 从数据中取版本号，必须随数据库中的每次更新单调递增
+     */
+    @SuppressWarnings("unchecked")
+    public <R> void enableVersion(String keyprefix, Function<R, Long> versionGetter) {
+        versions.put(keyprefix, (Function<Object, Long>) versionGetter);
+    }
+
+    /**
+     * 写穿：数据库更新后直接按版本号写入新数据，不删除缓存，读请求不会因此未命中
+     * 并通知其它节点丢掉本地副本
+     * @return 是否写入，缓存中已有更新的版本时返回false
+     */
+    public boolean writeThrough(String key, Object value, Long time, TimeUnit unit) {
+        boolean written = setWithLogicalExpire(key, value, time, unit, 0L);
+        if (written) {
+            publishInvalidation(Collections.singletonList(key));
+        }
+        return written;
+    }
+
+    /**
+     * 一级缓存统计：命中、未命中、淘汰次数，用于评估容量
+     */
+    public Map<String, Object> localStats() {
+        if (localCache == null) {
+            return Collections.singletonMap("enabled", false);
+        }
+        Map<String, Object> stats = new HashMap<>(localCache.stats());
+        stats.put("enabled", true);
+        return stats;
+    }
+
+    /**
+     * 请求合并统计：leaders为真正查库/重建的次数，coalesced为被合并掉的并发请求数
+     */
+    public Map<String, Object> singleFlightStats() {
+        return singleFlight.stats();
+    }
+
+    /**
+     * 重建线程池统计：队列深度、重建耗时、失败/丢弃次数
+     */
+    public Map<String, Object> rebuildStats() {
+        return rebuildExecutor.stats();
+    }
+
+    /**
+     * 过期策略统计：TTL抖动比例、提前刷新触发次数
+     */
+    public Map<String, Object> expiryStats() {
+        return expiry.stats();
+    }
+
+    /**
+     * 异步API加载线程池统计：正在执行、排队中、已完成的任务数
+     */
+    public Map<String, Object> asyncStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("threads", asyncLoader.getMaximumPoolSize());
+        stats.put("active", asyncLoader.getActiveCount());
+        stats.put("queued", asyncLoader.getQueue().size());
+        stats.put("completed", asyncLoader.getCompletedTaskCount());
+        return stats;
+    }
+
+    /**
+     * 自适应TTL统计：延长/缩短的写入次数，相比固定TTL平均少占用的内存
+     */
+    public Map<String, Object> adaptiveTtlStats() {
+        return adaptiveTtl.stats();
+    }
+
+    /**
+     * 降级统计：旧数据条目数、降级查库的剩余并发许可
+     */
+    public Map<String, Object> degradeStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("stale", staleCache.stats());
+        stats.put("dbPermits", degradeLimiter.availablePermits());
+        return stats;
+    }
+
+    /**
+     * 按key前缀分组的指标：各结果的次数与耗时分位数、命中率、重建耗时、锁争用
+     */
+    public Map<String, Object> metrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * 当前热点key及其估算QPS
+     */
+    public List<Map<String, Object>> hotKeys() {
+        return hotKeyDetector == null ? Collections.emptyList() : hotKeyDetector.hotKeys();
+    }
+
+    public Map<String, Object> hotKeyStats() {
+        if (hotKeyDetector == null) {
+            return Collections.singletonMap("enabled", false);
+        }
+        Map<String, Object> stats = new HashMap<>(hotKeyDetector.stats());
+        stats.put("replica", hotReplica.stats());
+        stats.put("enabled", true);
+        return stats;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> R getLocal(String key) {
+        R hot = getHot(key);
+        if (hot != null) {
+            return hot;
+        }
+        return localCache == null ? null : (R) localCache.get(key);
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+        putHot(key, value);
+        staleCache.put(key, value);
+    }
+
+    //记录一次访问，是热点key时读本地副本
+    @SuppressWarnings("unchecked")
+    private <R> R getHot(String key) {
+        if (hotKeyDetector == null || !hotKeyDetector.record(key)) {
+            return null;
+        }
+        return (R) hotReplica.get(key);
+    }
+
+    private void putHot(String key, Object value) {
+        if (hotKeyDetector != null && hotKeyDetector.isHot(key)) {
+            hotReplica.put(key, value);
+        }
+    }
+
+    private void invalidateLocal(String key) {
+        if (localCache != null) {
+            localCache.invalidate(key);
+        }
+        if (hotReplica != null) {
+            hotReplica.invalidate(key);
+        }
+        //数据变了，降级时宁可查库也不返回删除前的旧值
+        staleCache.invalidate(key);
     }
 
+    public void setWithLogicalExpire(String key, Object value,Long time, TimeUnit unit ) {
+        setWithLogicalExpire(key, value, time, unit, 0L);
+    }
 
+    /**
+     * 写入逻辑过期数据，并记录这次重建花费的时间，读取时据此决定是否提前刷新
+     * 开启了版本号的前缀按版本号比较后写入
+     * @param delta 重建耗时，毫秒
+     * @return 是否写入，缓存中已有更新的版本时返回false
+     */
+    public boolean setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, long delta) {
+        //设置逻辑过期，过期时长按访问频率调整后加随机抖动
+        long ttl = expiry.jitter(adaptiveTtl.ttl(key, unit.toMillis(time)));
+        byte[] raw = writeCodec.encodeWithExpire(value, System.currentTimeMillis() + ttl, delta);
+        //写入redis
+        Long version = versionOf(key, value);
+        if (version == null) {
+            setRaw(key, raw, null, null);
+        } else if (!setIfNewer(key, raw, version, ttl)) {
+            log.debug("缓存中已有更新的版本，跳过写入, key={}, version={}", key, version);
+            return false;
+        }
+        invalidateLocal(key);
+        return true;
+    }
 
+    //数据的版本号，所在前缀没有开启版本号时返回null
+    private Long versionOf(String key, Object value) {
+        if (versions.isEmpty() || value == null) {
+            return null;
+        }
+        for (Map.Entry<String, Function<Object, Long>> entry : versions.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue().apply(value);
+            }
+        }
+        return null;
+    }
 
+    //逻辑过期的数据不设置过期时间，版本号key按逻辑TTL过期
+    private boolean setIfNewer(String key, byte[] raw, long version, long logicalTtlMillis) {
+        Long written = breaker.execute(() -> stringRedisTemplate.execute(SET_IF_NEWER_SCRIPT, RedisSerializer.byteArray(),
+                new GenericToStringSerializer<>(Long.class), Arrays.asList(key, versionKeyOf(key)),
+                keyBytes(String.valueOf(version)), raw, keyBytes("0"), keyBytes(String.valueOf(versionTtlOf(logicalTtlMillis)))));
+        return written != null && written == 1L;
+    }
 
+    /**
+     * 版本号key的过期时间：数据逻辑过期后仍会作为旧数据返回，直到重建写入新版本，
+     * 所以版本号在逻辑TTL之外再多保留一个逻辑TTL，覆盖重建期间迟到的旧版本写入
+     */
+    private static long versionTtlOf(long logicalTtlMillis) {
+        return Math.max(1L, logicalTtlMillis) * 2;
+    }
 
     //缓存穿透————返回空值法解决
     public <R,ID>R queryWithPassThrough(
@@ -59,136 +451,1304 @@ public class CacheClient {
             Function<ID,R> dbFallack,
             Long time,
             TimeUnit unit) {
+        return queryWithPassThrough(keyprefix, id, type, dbFallack, time, unit, null);
+    }
+
+    //缓存穿透————布隆过滤器 + 返回空值法，过滤器判定不存在的id直接返回，不碰redis和数据库
+    public <R,ID>R queryWithPassThrough(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        try {
+            return doQueryWithPassThrough(keyprefix, id, type, dbFallack, time, unit, idFilter);
+        } catch (RedisUnavailableException e) {
+            return degrade(keyprefix, keyprefix + id, () -> dbFallack.apply(id));
+        }
+    }
+
+    private <R,ID>R doQueryWithPassThrough(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        long start = System.nanoTime();
+        if (idFilter != null && !idFilter.test(id)) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.FILTERED, start);
+            return null;
+        }
         String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        //0.先查本地L1
+        R local = getLocal(key);
+        if (local != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return local;
+        }
         //1.从redis里查缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] raw = getRaw(key);
+        boolean decodeError = false;
         //2.判断是否命中
-        if (StrUtil.isNotBlank(json)) {
-            //3.命中，返回商铺信息
-            return JSONUtil.toBean(json,type);
+        if (raw != null && raw.length > 0) {
+            //3.命中，返回商铺信息；数据无法解码（例如实体字段变了）时按未命中处理
+            CacheCodec codec = codecOf(raw);
+            R r = tryDecode(key, codec, raw, type);
+            if (r != null) {
+                migrate(key, codec, r, 0L);
+                putLocal(key, r);
+                metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+                return r;
+            }
+            decodeError = true;
+        } else if (raw != null) {
+            //如果未命中,判断命中的值是否为空
+            metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
+            return null;
+        }
+        //4.如果未命中，通过id查询数据库；同一个key的并发未命中只有一个线程查库，其余线程等待它的结果
+        R loaded = singleFlight.execute(CACHE_LOAD_FLIGHT + key, () -> {
+            R r = dbFallack.apply(id);
+            //5.若不存在，放回404
+            if (r == null) {
+                //防止存储穿透，使用存储空对象的方法，将空值写入reids
+                setNull(key);
+                //返回错误信息
+                return null;
+            }
+            //6.若存在，将商铺数据写入redis
+            this.set(key, r, time, unit);
+            putLocal(key, r);
+            //7.返回商铺信息
+            return r;
+        });
+        metrics.record(keyprefix, decodeError ? CacheMetrics.Outcome.DECODE_ERROR
+                : loaded == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+        return loaded;
+    }
+
+    //缓存击穿————逻辑过期时间解决
+    public <R,ID>R queryWithLogicalExpire(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit) {
+        return queryWithLogicalExpire(keyprefix, id, type, dbFallack, time, unit, null);
+    }
+
+    //缓存击穿————逻辑过期时间解决，idFilter判定不存在的id直接返回null
+    public <R,ID>R queryWithLogicalExpire(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        try {
+            return doQueryWithLogicalExpire(keyprefix, id, type, dbFallack, time, unit, idFilter);
+        } catch (RedisUnavailableException e) {
+            return degrade(keyprefix, keyprefix + id, () -> dbFallack.apply(id));
         }
-        //如果未命中,判断命中的值是否为空
-        if (json != null) {
+    }
+
+    private <R,ID>R doQueryWithLogicalExpire(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        long start = System.nanoTime();
+        if (idFilter != null && !idFilter.test(id)) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.FILTERED, start);
             return null;
         }
-        /**
-         *  此处!= null与== ""是一样的效果，
-         * 因为前面的isNotBlank已经判断了只有null和""会未命中，返回flase
-         * 都是在排除null，找到""解决缓存穿透的问题
-         *         if (shopJson == "") {
-         *             return Result.fail("店铺不存在！");
-         *         }
-         * */
-        //4.如果未命中，通过id查询数据库
-        R r = dbFallack.apply(id);
-        //5.若不存在，放回404
-        if (r == null) {
-            //防止存储穿透，使用存储空对象的方法，将空值写入reids
-            stringRedisTemplate.opsForValue().set(key,"", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            //返回错误信息
+        String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        //0.先查本地L1，L1里只放未逻辑过期的数据，过期由L1自身的TTL兜底
+        R local = getLocal(key);
+        if (local != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return local;
+        }
+        //1.从redis里查缓存
+        byte[] raw = getRaw(key);
+        //2.判断是否命中
+        if (raw == null) {
+            //3.未命中（没有预热过），同步查库写入逻辑过期数据，并发请求共用这一次查库
+            log.debug("未命中cache, key={}", key);
+            R loaded = singleFlight.execute(CACHE_LOAD_FLIGHT + key, () -> {
+                long begin = System.currentTimeMillis();
+                R r = dbFallack.apply(id);
+                if (r == null) {
+                    //数据库也没有，写入空值防穿透
+                    setNull(key);
+                    return null;
+                }
+                this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - begin);
+                return r;
+            });
+            metrics.record(keyprefix, loaded == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+            return loaded;
+        }
+        if (raw.length == 0) {
+            //命中空值，数据不存在
+            metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
             return null;
         }
-        //6.若存在，将商铺数据写入redis
-        this.set(key, r, time, unit);
-        //7.返回商铺信息
+        //4.命中，交给编码器解析，JSON只解析一次，二进制编码的过期时间在定长头部
+        CacheCodec codec = codecOf(raw);
+        RedisData redisData = tryDecodeWithExpire(key, codec, raw, type);
+        if (redisData == null) {
+            //旧数据已无法解码，同步查库重建一次，并发请求共用这一次查库
+            R loaded = singleFlight.execute(CACHE_LOAD_FLIGHT + key, () -> {
+                long begin = System.currentTimeMillis();
+                R r = dbFallack.apply(id);
+                if (r != null) {
+                    this.setWithLogicalExpire(key, r, time, unit, System.currentTimeMillis() - begin);
+                }
+                return r;
+            });
+            metrics.record(keyprefix, CacheMetrics.Outcome.DECODE_ERROR, start);
+            return loaded;
+        }
+        @SuppressWarnings("unchecked")
+        R r = (R) redisData.getData();
+        LocalDateTime expireTime = redisData.getExpireTime();
+
+        //5.判断是否过期
+        long expireAt = toMillis(expireTime);
+        long now = System.currentTimeMillis();
+        if(expireAt > now){
+            //5.1.未过期，放入L1并直接返回店铺信息
+            migrate(key, codec, r, expireAt);
+            putLocal(key, r);
+            //快过期了，按概率提前在后台刷新，不影响本次返回
+            if (expiry.shouldRefreshEarly(now, expireAt, redisData.getDelta())) {
+                singleFlight.submit(CACHE_REBUILD_FLIGHT + key, () -> rebuildWithLogicalExpire(keyprefix, id, dbFallack, time, unit, expireAt));
+            }
+            metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+            return r;
+        }
+        //5.2.已过期，重新建立缓存；先留作降级用的旧数据，抢锁时redis不可用也能返回它
+        staleCache.put(key, r);
+        //6.缓存重建，本JVM内同一个key只有一个线程去抢Redis锁，其余线程不等待，直接返回旧数据
+        singleFlight.submit(CACHE_REBUILD_FLIGHT + key, () -> rebuildWithLogicalExpire(keyprefix, id, dbFallack, time, unit, expireAt));
+        //6.4.返回过期的商铺信息
+        metrics.record(keyprefix, CacheMetrics.Outcome.STALE, start);
         return r;
     }
 
+    private <R,ID> CompletableFuture<Void> rebuildWithLogicalExpire(
+            String keyprefix, ID id, Function<ID,R> dbFallack, Long time, TimeUnit unit, long seenExpireAt) {
+        String key = keyprefix + id;
+        //6.1.获取互斥锁，失败说明其它节点正在重建
+        String lockKey = lockKeyOf(key);
+        if (!tryLock(keyprefix, lockKey)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        //6.2.拿到锁后再查一次redis做doublecheck，别人刚重建完就无需再查库
+        if (isRebuiltSince(key, seenExpireAt)) {
+            unlock(lockKey);
+            return CompletableFuture.completedFuture(null);
+        }
+        // 6.3.交给重建线程池，失败和被丢弃都由线程池记录，这里只负责释放锁
+        return rebuildExecutor.submit(key, () -> {
+            //6.3.1查询数据库，记录耗时
+            long begin = System.nanoTime();
+            boolean success = false;
+            try {
+                R r1 = dbFallack.apply(id);
+                //6.3.2.写入redis
+                this.setWithLogicalExpire(key, r1, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                success = true;
+            } finally {
+                metrics.recordRebuild(keyprefix, System.nanoTime() - begin, success);
+            }
+        }).whenComplete((v, e) -> unlock(lockKey));
+    }
 
+    //只读头部的逻辑过期时间，比读到时更新说明已经被别人重建过
+    private boolean isRebuiltSince(String key, long seenExpireAt) {
+        byte[] raw = getRaw(key);
+        if (raw == null || raw.length == 0) {
+            return false;
+        }
+        try {
+            return codecOf(raw).readExpireAt(raw) > seenExpireAt;
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
-    //建立线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR =
-            Executors.newFixedThreadPool(10);
-    //缓存击穿————逻辑过期时间解决
-    public <R,ID>R queryWithLogicalExpire(
+    //缓存击穿————互斥锁解决：未命中时只有拿到锁的线程查库，其余线程等待后重新读缓存
+    public <R,ID>R queryWithMutex(
             String keyprefix ,
             ID id,
             Class<R> type,
             Function<ID,R> dbFallack,
             Long time,
-            TimeUnit unit) {
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        try {
+            return doQueryWithMutex(keyprefix, id, type, dbFallack, time, unit, idFilter);
+        } catch (RedisUnavailableException e) {
+            return degrade(keyprefix, keyprefix + id, () -> dbFallack.apply(id));
+        }
+    }
+
+    private <R,ID>R doQueryWithMutex(
+            String keyprefix ,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        long start = System.nanoTime();
+        if (idFilter != null && !idFilter.test(id)) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.FILTERED, start);
+            return null;
+        }
         String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        //0.先查本地L1
+        R local = getLocal(key);
+        if (local != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return local;
+        }
         //1.从redis里查缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //2.判断是否命中
-        if (StrUtil.isBlank(json)) {
-            //3.未命中，返回null
-            System.out.println("未命中cache");
+        byte[] raw = getRaw(key);
+        if (raw != null && raw.length == 0) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
             return null;
         }
+        R cached = raw == null ? null : tryDecode(key, codecOf(raw), raw, type);
+        if (cached != null) {
+            putLocal(key, cached);
+            metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+            return cached;
+        }
+        //2.未命中，本JVM内同一个key只有一个线程去抢Redis锁
+        R loaded = singleFlight.execute(CACHE_LOAD_FLIGHT + key, () -> loadWithMutex(keyprefix, id, type, dbFallack, time, unit));
+        metrics.record(keyprefix, loaded == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+        return loaded;
+    }
 
-        //4.命中，先把json反序列化为对象
-        /**
-         * 取出的是Object类型，需强转为JSONObject类型，而不是直接反序列化为 Shop 类型，
-         * 因为反序列化之后redisData.getData()得到的数据已经是解析的 JSON 对象结构（通常由序列化库表示为 JSONObject）
-         * 直接转成shop等自定义类，也可以，但可能造成泛型信息丢失：在运行时，Java 的泛型会经历类型擦除
-         */
+    private <R,ID> R loadWithMutex(String keyprefix, ID id, Class<R> type, Function<ID,R> dbFallack, Long time, TimeUnit unit) {
+        String key = keyprefix + id;
+        String lockKey = lockKeyOf(key);
+        //最多等待锁TTL这么久，之后直接查库，不无限重试
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        while (!tryLock(keyprefix, lockKey)) {
+            if (System.currentTimeMillis() > deadline) {
+                log.warn("等待重建锁超时，直接查询数据库, key={}", key);
+                return dbFallack.apply(id);
+            }
+            //3.失败，休眠并重试，别人重建完成就能直接读到
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            byte[] raw = getRaw(key);
+            if (raw != null && raw.length == 0) {
+                return null;
+            }
+            R cached = raw == null ? null : tryDecode(key, codecOf(raw), raw, type);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        try {
+            //4.获取锁成功，再次检测redis缓存是否存在————DoubleCheck，数据无法解码时继续重建
+            byte[] raw = getRaw(key);
+            if (raw != null && raw.length == 0) {
+                return null;
+            }
+            R cached = raw == null ? null : tryDecode(key, codecOf(raw), raw, type);
+            if (cached != null) {
+                return cached;
+            }
+            //5.查询数据库，不存在写入空值
+            long begin = System.nanoTime();
+            R r = dbFallack.apply(id);
+            if (r == null) {
+                setNull(key);
+            } else {
+                this.set(key, r, time, unit);
+                putLocal(key, r);
+            }
+            metrics.recordRebuild(keyprefix, System.nanoTime() - begin, true);
+            return r;
+        } finally {
+            //6.释放互斥锁
+            unlock(lockKey);
+        }
+    }
 
-        //        RedisData redisData = JSONUtil.toBean(shopJson, RedisData.class);
-        //        JSONObject data = (JSONObject) redisData.getData();
-        //        Shop shop = JSONUtil.toBean(data, Shop.class);
-        //简化代码
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(),type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+    //列表缓存————返回空值法解决穿透，同一个key的并发未命中合并成一次查库
+    public <R> List<R> queryListWithPassThrough(
+            String keyprefix,
+            Object id,
+            Class<R> type,
+            Supplier<List<R>> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        try {
+            return doQueryListWithPassThrough(keyprefix, id, type, dbFallback, time, unit);
+        } catch (RedisUnavailableException e) {
+            return degrade(keyprefix, keyprefix + id, dbFallback);
+        }
+    }
 
-        //5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1.未过期，直接返回店铺信息
-            return r;
+    private <R> List<R> doQueryListWithPassThrough(
+            String keyprefix,
+            Object id,
+            Class<R> type,
+            Supplier<List<R>> dbFallback,
+            Long time,
+            TimeUnit unit) {
+        long start = System.nanoTime();
+        String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        List<R> hot = getHot(key);
+        if (hot != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return hot;
+        }
+        byte[] raw = getRaw(key);
+        if (raw != null && raw.length == 0) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
+            return null;
+        }
+        if (raw != null) {
+            CacheCodec codec = codecOf(raw);
+            try {
+                List<R> list = codec.decodeList(raw, type);
+                migrate(key, codec, list, 0L);
+                putHot(key, list);
+                staleCache.put(key, list);
+                metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+                return list;
+            } catch (Exception e) {
+                log.warn("缓存数据解码失败，按未命中处理, key={}", key, e);
+            }
+        }
+        List<R> loaded = singleFlight.execute(CACHE_LOAD_FLIGHT + key, () -> {
+            List<R> list = dbFallback.get();
+            if (list == null) {
+                setNull(key);
+            } else {
+                this.set(key, list, time, unit);
+                staleCache.put(key, list);
+            }
+            return list;
+        });
+        metrics.record(keyprefix, loaded == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+        return loaded;
+    }
+
+    /*
+     * 异步API：基于Lettuce的异步命令，调用线程不等待redis往返，可以同时发起多个查询再合并结果
+     * 返回的future在Lettuce的IO线程上完成，调用方的回调里不要做阻塞操作（查库、同步redis命令等），
+     * 需要时用 thenApplyAsync 切换到自己的线程池；缓存未命中时的查库由内部的加载线程池执行
+     */
+
+    /**
+     * 异步读取，未命中或命中空值时结果为null
+     */
+    public <R> CompletableFuture<R> getAsync(String key, Class<R> type) {
+        R local = getLocal(key);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
         }
-        //5.2.已过期，重新建立缓存
-        //6.缓存重建
-        //6.1.获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tyrlock(lockKey);
-        //再一次检测Redis缓存是否过期，做doublecheck ，若存在无需重建缓存
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //.未过期，直接返回店铺信息
+        return getRawAsync(key).thenApply(raw -> {
+            R r = raw == null || raw.length == 0 ? null : tryDecode(key, codecOf(raw), raw, type);
+            staleCache.put(key, r);
             return r;
+        });
+    }
+
+    public CompletableFuture<Void> setAsync(String key, Object value, Long time, TimeUnit unit) {
+        byte[] raw = writeCodec.encode(value);
+        return setRawAsync(key, raw, ttlForWrite(key, unit.toMillis(time), raw.length))
+                .thenRun(() -> invalidateLocal(key));
+    }
+
+    public CompletableFuture<Void> setWithLogicalExpireAsync(String key, Object value, Long time, TimeUnit unit, long delta) {
+        long ttl = expiry.jitter(adaptiveTtl.ttl(key, unit.toMillis(time)));
+        byte[] raw = writeCodec.encodeWithExpire(value, System.currentTimeMillis() + ttl, delta);
+        Long version = versionOf(key, value);
+        CompletableFuture<?> write = version == null ? setRawAsync(key, raw, null)
+                : breaker.executeAsync(() -> async().<Long>eval(SET_IF_NEWER_SCRIPT.getScriptAsString(), ScriptOutputType.INTEGER,
+                        new byte[][]{keyBytes(key), keyBytes(versionKeyOf(key))},
+                        keyBytes(String.valueOf(version)), raw, keyBytes("0"),
+                        keyBytes(String.valueOf(versionTtlOf(ttl)))).toCompletableFuture());
+        return write.thenRun(() -> invalidateLocal(key));
+    }
+
+    //缓存穿透————返回空值法解决，异步版本
+    public <R,ID> CompletableFuture<R> queryWithPassThroughAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit) {
+        return queryWithPassThroughAsync(keyprefix, id, type, dbFallack, time, unit, null);
+    }
+
+    public <R,ID> CompletableFuture<R> queryWithPassThroughAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        return degradeAsync(doQueryWithPassThroughAsync(keyprefix, id, type, dbFallack, time, unit, idFilter),
+                keyprefix, keyprefix + id, () -> dbFallack.apply(id));
+    }
+
+    private <R,ID> CompletableFuture<R> doQueryWithPassThroughAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        long start = System.nanoTime();
+        if (idFilter != null && !idFilter.test(id)) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.FILTERED, start);
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        //0.先查本地L1
+        R local = getLocal(key);
+        if (local != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return CompletableFuture.completedFuture(local);
+        }
+        //1.异步查redis
+        return getRawAsync(key).thenCompose(raw -> {
+            //2.命中空值
+            if (raw != null && raw.length == 0) {
+                metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
+                return CompletableFuture.completedFuture(null);
+            }
+            //3.命中，解码失败时按未命中处理
+            if (raw != null) {
+                CacheCodec codec = codecOf(raw);
+                R r = tryDecode(key, codec, raw, type);
+                if (r != null) {
+                    migrateAsync(key, codec, r, 0L);
+                    putLocal(key, r);
+                    metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+                    return CompletableFuture.completedFuture(r);
+                }
+            }
+            boolean decodeError = raw != null;
+            //4.未命中，在加载线程池查库，同一个key的并发未命中共用一次查库
+            return singleFlight.submit(CACHE_ASYNC_FLIGHT + key, () -> CompletableFuture
+                    .supplyAsync(() -> dbFallack.apply(id), asyncLoader)
+                    .thenCompose(r -> {
+                        if (r == null) {
+                            //5.不存在，写入空值防穿透
+                            return setRawAsync(key, new byte[0], ttlForWrite(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), 0))
+                                    .thenApply(v -> (R) null);
+                        }
+                        //6.存在，写入redis
+                        return setAsync(key, r, time, unit).thenApply(v -> {
+                            putLocal(key, r);
+                            return r;
+                        });
+                    }))
+                    .thenApply(r -> {
+                        metrics.record(keyprefix, decodeError ? CacheMetrics.Outcome.DECODE_ERROR
+                                : r == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+                        return r;
+                    });
+        });
+    }
+
+    //缓存击穿————逻辑过期时间解决，异步版本
+    public <R,ID> CompletableFuture<R> queryWithLogicalExpireAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit) {
+        return queryWithLogicalExpireAsync(keyprefix, id, type, dbFallack, time, unit, null);
+    }
+
+    public <R,ID> CompletableFuture<R> queryWithLogicalExpireAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        return degradeAsync(doQueryWithLogicalExpireAsync(keyprefix, id, type, dbFallack, time, unit, idFilter),
+                keyprefix, keyprefix + id, () -> dbFallack.apply(id));
+    }
+
+    private <R,ID> CompletableFuture<R> doQueryWithLogicalExpireAsync(
+            String keyprefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallack,
+            Long time,
+            TimeUnit unit,
+            Predicate<ID> idFilter) {
+        long start = System.nanoTime();
+        if (idFilter != null && !idFilter.test(id)) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.FILTERED, start);
+            return CompletableFuture.completedFuture(null);
+        }
+        String key = keyprefix + id;
+        adaptiveTtl.record(key);
+        //0.先查本地L1
+        R local = getLocal(key);
+        if (local != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.LOCAL_HIT, start);
+            return CompletableFuture.completedFuture(local);
+        }
+        //1.异步查redis
+        return getRawAsync(key).thenCompose(raw -> {
+            if (raw == null) {
+                //2.未命中（没有预热过），查库写入逻辑过期数据，数据库也没有则写入空值
+                return loadWithLogicalExpireAsync(key, id, dbFallack, time, unit, true).thenApply(r -> {
+                    metrics.record(keyprefix, r == null ? CacheMetrics.Outcome.NULL_CACHED : CacheMetrics.Outcome.MISS, start);
+                    return r;
+                });
+            }
+            if (raw.length == 0) {
+                metrics.record(keyprefix, CacheMetrics.Outcome.NULL_HIT, start);
+                return CompletableFuture.completedFuture(null);
+            }
+            CacheCodec codec = codecOf(raw);
+            RedisData redisData = tryDecodeWithExpire(key, codec, raw, type);
+            if (redisData == null) {
+                //3.旧数据已无法解码，查库重建一次
+                return loadWithLogicalExpireAsync(key, id, dbFallack, time, unit, false).thenApply(r -> {
+                    metrics.record(keyprefix, CacheMetrics.Outcome.DECODE_ERROR, start);
+                    return r;
+                });
+            }
+            @SuppressWarnings("unchecked")
+            R r = (R) redisData.getData();
+            long expireAt = toMillis(redisData.getExpireTime());
+            long now = System.currentTimeMillis();
+            //4.未过期直接返回，快过期时按概率提前刷新
+            if (expireAt > now) {
+                migrateAsync(key, codec, r, expireAt);
+                putLocal(key, r);
+                if (expiry.shouldRefreshEarly(now, expireAt, redisData.getDelta())) {
+                    rebuildInBackground(keyprefix, id, dbFallack, time, unit, expireAt);
+                }
+                metrics.record(keyprefix, CacheMetrics.Outcome.HIT, start);
+                return CompletableFuture.completedFuture(r);
+            }
+            //5.已过期，后台重建，先返回旧数据
+            staleCache.put(key, r);
+            rebuildInBackground(keyprefix, id, dbFallack, time, unit, expireAt);
+            metrics.record(keyprefix, CacheMetrics.Outcome.STALE, start);
+            return CompletableFuture.completedFuture(r);
+        });
+    }
+
+    private <R,ID> CompletableFuture<R> loadWithLogicalExpireAsync(
+            String key, ID id, Function<ID,R> dbFallack, Long time, TimeUnit unit, boolean cacheNull) {
+        return singleFlight.submit(CACHE_ASYNC_FLIGHT + key, () -> {
+            long begin = System.currentTimeMillis();
+            return CompletableFuture.supplyAsync(() -> dbFallack.apply(id), asyncLoader).thenCompose(r -> {
+                if (r == null) {
+                    return cacheNull
+                            ? setRawAsync(key, new byte[0], ttlForWrite(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), 0)).thenApply(v -> (R) null)
+                            : CompletableFuture.completedFuture((R) null);
+                }
+                return setWithLogicalExpireAsync(key, r, time, unit, System.currentTimeMillis() - begin).thenApply(v -> r);
+            });
+        });
+    }
+
+    //重建要用同步命令抢锁，切到加载线程池再执行；池满时跳过，下次读到过期数据会再触发
+    private <R,ID> void rebuildInBackground(
+            String keyprefix, ID id, Function<ID,R> dbFallack, Long time, TimeUnit unit, long seenExpireAt) {
+        String key = keyprefix + id;
+        if (singleFlight.isInFlight(CACHE_REBUILD_FLIGHT + key)) {
+            return;
+        }
+        try {
+            asyncLoader.execute(() ->
+                    singleFlight.submit(CACHE_REBUILD_FLIGHT + key, () -> rebuildWithLogicalExpire(keyprefix, id, dbFallack, time, unit, seenExpireAt)));
+        } catch (RejectedExecutionException e) {
+            log.debug("异步加载线程池已满，跳过本次重建, key={}", key);
+        }
+    }
+
+    //读到旧编码的数据，异步改写成当前编码，TTL保持不变
+    private void migrateAsync(String key, CacheCodec codec, Object value, long expireAt) {
+        //带版本号的数据要按版本号比较后改写，交给同步读取或批量迁移
+        if (!migrateOnRead || codec == writeCodec || value == null || versionOf(key, value) != null) {
+            return;
+        }
+        byte[] raw = expireAt > 0 ? writeCodec.encodeWithExpire(value, expireAt) : writeCodec.encode(value);
+        breaker.executeAsync(() -> async().set(keyBytes(key), raw, SetArgs.Builder.keepttl().xx()).toCompletableFuture());
+    }
+
+    //redis不可用时降级，查库切到加载线程池；其它异常原样传给调用方
+    private <R> CompletableFuture<R> degradeAsync(CompletableFuture<R> future, String keyprefix, String key, Supplier<R> dbFallback) {
+        return future.handle((r, e) -> {
+            if (e == null) {
+                return CompletableFuture.completedFuture(r);
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RedisUnavailableException) {
+                return CompletableFuture.supplyAsync(() -> degrade(keyprefix, key, dbFallback), asyncLoader);
+            }
+            CompletableFuture<R> failed = new CompletableFuture<>();
+            failed.completeExceptionally(cause);
+            return failed;
+        }).thenCompose(f -> f);
+    }
+
+    private CompletableFuture<byte[]> getRawAsync(String key) {
+        return breaker.executeAsync(() -> async().get(keyBytes(key)).toCompletableFuture());
+    }
+
+    //ttlMillis为null时不设置过期时间
+    private CompletableFuture<Void> setRawAsync(String key, byte[] value, Long ttlMillis) {
+        SetArgs args = ttlMillis == null ? new SetArgs() : SetArgs.Builder.px(ttlMillis);
+        return breaker.executeAsync(() -> async().set(keyBytes(key), value, args).toCompletableFuture())
+                .thenApply(ok -> null);
+    }
+
+    //共享的原生连接是线程安全的，所有异步调用复用同一个
+    @SuppressWarnings("unchecked")
+    private RedisClusterAsyncCommands<byte[], byte[]> async() {
+        RedisConnection connection = asyncConnection;
+        if (connection == null) {
+            synchronized (this) {
+                if (asyncConnection == null) {
+                    if (!(connectionFactory instanceof LettuceConnectionFactory)) {
+                        throw new IllegalStateException("异步API需要Lettuce连接工厂");
+                    }
+                    asyncConnection = connectionFactory.getConnection();
+                }
+                connection = asyncConnection;
+            }
+        }
+        return (RedisClusterAsyncCommands<byte[], byte[]>) connection.getNativeConnection();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        asyncLoader.shutdown();
+        if (asyncConnection != null) {
+            asyncConnection.close();
+        }
+    }
+
+    //批量查询————缓存穿透，一次MGET + 一次批量查库 + 一次pipeline回写
+    public <R,ID> Map<ID,R> queryBatchWithPassThrough(
+            String keyprefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+            Function<R,ID> idGetter,
+            Long time,
+            TimeUnit unit) {
+        try {
+            return doQueryBatchWithPassThrough(keyprefix, ids, type, dbBatchFallback, idGetter, time, unit);
+        } catch (RedisUnavailableException e) {
+            return degradeBatch(keyprefix, ids, dbBatchFallback, idGetter);
+        }
+    }
+
+    private <R,ID> Map<ID,R> doQueryBatchWithPassThrough(
+            String keyprefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+            Function<R,ID> idGetter,
+            Long time,
+            TimeUnit unit) {
+        long start = System.nanoTime();
+        Map<ID,R> result = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        //1.MGET一次性查出所有缓存
+        List<byte[]> raws = multiGet(keyprefix, idList);
+        //2.区分命中、空值、未命中
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            byte[] raw = raws.get(i);
+            R r = raw == null || raw.length == 0 ? null : tryDecode(keyprefix + idList.get(i), codecOf(raw), raw, type);
+            if (r != null) {
+                result.put(idList.get(i), r);
+                metrics.count(keyprefix, CacheMetrics.Outcome.HIT);
+            } else if (raw == null || raw.length > 0) {
+                //""是缓存的空值，直接跳过；null或解码失败才是真正未命中
+                misses.add(idList.get(i));
+            } else {
+                metrics.count(keyprefix, CacheMetrics.Outcome.NULL_HIT);
+            }
+        }
+        if (misses.isEmpty()) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.BATCH, start);
+            return sortByIds(idList, result);
+        }
+        //3.未命中的id一次查库
+        Map<ID,R> loaded = loadBatch(misses, dbBatchFallback, idGetter);
+        result.putAll(loaded);
+        countLoaded(keyprefix, misses, loaded);
+        //4.pipeline回写，查不到的写空值防穿透
+        breaker.run(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                String key = keyprefix + id;
+                if (r == null) {
+                    connection.stringCommands().set(keyBytes(key), new byte[0],
+                            Expiration.milliseconds(ttlForWrite(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), 0)),
+                            RedisStringCommands.SetOption.upsert());
+                } else {
+                    byte[] raw = writeCodec.encode(r);
+                    connection.stringCommands().set(keyBytes(key), raw,
+                            Expiration.milliseconds(ttlForWrite(key, unit.toMillis(time), raw.length)),
+                            RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        }));
+        misses.forEach(id -> invalidateLocal(keyprefix + id));
+        result.forEach((id, r) -> staleCache.put(keyprefix + id, r));
+        metrics.record(keyprefix, CacheMetrics.Outcome.BATCH, start);
+        return sortByIds(idList, result);
+    }
+
+    //批量查询————逻辑过期，一次MGET；过期的异步批量重建，未命中的同步批量查库并预热
+    public <R,ID> Map<ID,R> queryBatchWithLogicalExpire(
+            String keyprefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+            Function<R,ID> idGetter,
+            Long time,
+            TimeUnit unit) {
+        try {
+            return doQueryBatchWithLogicalExpire(keyprefix, ids, type, dbBatchFallback, idGetter, time, unit);
+        } catch (RedisUnavailableException e) {
+            return degradeBatch(keyprefix, ids, dbBatchFallback, idGetter);
+        }
+    }
+
+    private <R,ID> Map<ID,R> doQueryBatchWithLogicalExpire(
+            String keyprefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+            Function<R,ID> idGetter,
+            Long time,
+            TimeUnit unit) {
+        long start = System.nanoTime();
+        Map<ID,R> result = new LinkedHashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return result;
+        }
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        //1.MGET一次性查出所有缓存
+        List<byte[]> raws = multiGet(keyprefix, idList);
+        List<ID> misses = new ArrayList<>();
+        List<ID> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < idList.size(); i++) {
+            ID id = idList.get(i);
+            byte[] raw = raws.get(i);
+            if (raw != null && raw.length == 0) {
+                //缓存的空值，数据不存在
+                metrics.count(keyprefix, CacheMetrics.Outcome.NULL_HIT);
+                continue;
+            }
+            //2.命中，反序列化并判断是否逻辑过期，过期的先返回旧值
+            RedisData redisData = raw == null ? null : tryDecodeWithExpire(keyprefix + id, codecOf(raw), raw, type);
+            if (redisData == null) {
+                misses.add(id);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            R r = (R) redisData.getData();
+            result.put(id, r);
+            //已过期或按概率需要提前刷新的，都进入重建
+            long expireAt = toMillis(redisData.getExpireTime());
+            if (expireAt <= now) {
+                expired.add(id);
+                metrics.count(keyprefix, CacheMetrics.Outcome.STALE);
+            } else {
+                if (expiry.shouldRefreshEarly(now, expireAt, redisData.getDelta())) {
+                    expired.add(id);
+                }
+                metrics.count(keyprefix, CacheMetrics.Outcome.HIT);
+            }
+        }
+        //3.过期的key逐个抢锁，抢到锁的合并成一个任务异步重建；本JVM已在重建的key直接跳过
+        Map<String,ID> locked = new LinkedHashMap<>();
+        for (ID id : expired) {
+            String key = keyprefix + id;
+            if (!singleFlight.isInFlight(CACHE_REBUILD_FLIGHT + key) && !rebuildExecutor.isPending(key) && tryLock(keyprefix, lockKeyOf(key))) {
+                locked.put(key, id);
+            }
         }
-        //6.2.判断是否取锁成功
-        if(isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+        if (!locked.isEmpty()) {
+            //按key去重，和其它批次、单个重建重叠的key只由先提交的任务重建，只释放本批次实际负责重建的key上的锁
+            rebuildExecutor.submitBatch(locked.keySet(), keys -> {
+                long begin = System.nanoTime();
+                boolean success = false;
                 try {
-                    //6.3.1查询数据库
-                    R r1 = dbFallack.apply(id);
-                    //6.3.2.写入redis
-                    this.setWithLogicalExpire(key,r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放锁
-                    unlock(lockKey);
+                    List<ID> rebuildIds = new ArrayList<>(keys.size());
+                    keys.forEach(key -> rebuildIds.add(locked.get(key)));
+                    Map<ID,R> fresh = loadBatch(rebuildIds, dbBatchFallback, idGetter);
+                    setBatchWithLogicalExpire(keyprefix, fresh, time, unit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                    success = true;
+                } finally {
+                    metrics.recordRebuild(keyprefix, System.nanoTime() - begin, success);
+                }
+            }, keys -> keys.forEach(key -> unlock(lockKeyOf(key))));
+        }
+        //4.完全没有缓存的，同步查库一次并写入逻辑过期数据
+        if (!misses.isEmpty()) {
+            long begin = System.currentTimeMillis();
+            Map<ID,R> loaded = loadBatch(misses, dbBatchFallback, idGetter);
+            result.putAll(loaded);
+            countLoaded(keyprefix, misses, loaded);
+            setBatchWithLogicalExpire(keyprefix, loaded, time, unit, System.currentTimeMillis() - begin);
+        }
+        result.forEach((id, r) -> staleCache.put(keyprefix + id, r));
+        metrics.record(keyprefix, CacheMetrics.Outcome.BATCH, start);
+        return sortByIds(idList, result);
+    }
+
+    //批量查询降级：有旧数据的用旧数据，其余经限流器一次查库
+    @SuppressWarnings("unchecked")
+    private <R,ID> Map<ID,R> degradeBatch(String keyprefix, Collection<ID> ids,
+                                          Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+                                          Function<R,ID> idGetter) {
+        long start = System.nanoTime();
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<ID,R> result = new HashMap<>(idList.size());
+        List<ID> misses = new ArrayList<>();
+        for (ID id : idList) {
+            R stale = (R) staleCache.get(keyprefix + id);
+            if (stale != null) {
+                result.put(id, stale);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (!misses.isEmpty()) {
+            Map<ID,R> loaded = limitDb(keyprefix, start, () -> loadBatch(misses, dbBatchFallback, idGetter));
+            loaded.forEach((id, r) -> staleCache.put(keyprefix + id, r));
+            result.putAll(loaded);
+        }
+        metrics.record(keyprefix, misses.isEmpty() ? CacheMetrics.Outcome.DEGRADED_STALE : CacheMetrics.Outcome.DEGRADED_DB, start);
+        return sortByIds(idList, result);
+    }
+
+    private <R,ID> void countLoaded(String keyprefix, Collection<ID> misses, Map<ID,R> loaded) {
+        for (ID id : misses) {
+            metrics.count(keyprefix, loaded.containsKey(id) ? CacheMetrics.Outcome.MISS : CacheMetrics.Outcome.NULL_CACHED);
+        }
+    }
+
+    //pipeline批量写入逻辑过期数据
+    public <R,ID> void setBatchWithLogicalExpire(String keyprefix, Map<ID,R> values, Long time, TimeUnit unit) {
+        setBatchWithLogicalExpire(keyprefix, values, time, unit, 0L);
+    }
+
+    //pipeline批量写入逻辑过期数据，delta为这一批的重建耗时；每个key的过期时间单独抖动
+    public <R,ID> void setBatchWithLogicalExpire(String keyprefix, Map<ID,R> values, Long time, TimeUnit unit, long delta) {
+        if (values.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long ttlMillis = unit.toMillis(time);
+        byte[] script = keyBytes(SET_IF_NEWER_SCRIPT.getScriptAsString());
+        breaker.run(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, r) -> {
+                String key = keyprefix + id;
+                long ttl = expiry.jitter(adaptiveTtl.ttl(key, ttlMillis));
+                byte[] raw = writeCodec.encodeWithExpire(r, now + ttl, delta);
+                Long version = versionOf(key, r);
+                if (version == null) {
+                    connection.stringCommands().set(keyBytes(key), raw);
+                } else {
+                    //管道中无法处理NOSCRIPT，直接发送脚本内容
+                    connection.scriptingCommands().eval(script, ReturnType.INTEGER, 2,
+                            keyBytes(key), keyBytes(versionKeyOf(key)), keyBytes(String.valueOf(version)), raw, keyBytes("0"),
+                            keyBytes(String.valueOf(versionTtlOf(ttl))));
                 }
             });
+            return null;
+        }));
+        values.keySet().forEach(id -> invalidateLocal(keyprefix + id));
+    }
+
+    //版本号key：ver:{缓存key}，hash tag保证和缓存key在同一个slot，版本号脚本在集群中也能执行
+    public static String versionKeyOf(String key) {
+        return CACHE_VERSION_KEY + "{" + key + "}";
+    }
+
+    //等待异步结果，取出CompletionException里真正的异常
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
         }
-        //6.4.返回过期的商铺信息
+    }
+
+    private <ID> List<byte[]> multiGet(String keyprefix, List<ID> ids) {
+        byte[][] keys = new byte[ids.size()][];
+        for (int i = 0; i < ids.size(); i++) {
+            String key = keyprefix + ids.get(i);
+            adaptiveTtl.record(key);
+            keys[i] = keyBytes(key);
+        }
+        return mGet(keys);
+    }
+
+    private List<byte[]> mGet(byte[][] keys) {
+        List<byte[]> raws = breaker.execute(() ->
+                stringRedisTemplate.execute((RedisCallback<List<byte[]>>) c -> c.stringCommands().mGet(keys)));
+        //管道/事务中会返回null，按全部未命中处理
+        return raws != null ? raws : new ArrayList<>(Collections.nCopies(keys.length, null));
+    }
+
+    private <R,ID> Map<ID,R> loadBatch(Collection<ID> ids,
+                                       Function<Collection<ID>, ? extends Collection<R>> dbBatchFallback,
+                                       Function<R,ID> idGetter) {
+        Map<ID,R> loaded = new HashMap<>(ids.size());
+        Collection<R> rows = dbBatchFallback.apply(ids);
+        if (rows != null) {
+            for (R r : rows) {
+                loaded.put(idGetter.apply(r), r);
+            }
+        }
+        return loaded;
+    }
+
+    //按调用方传入的id顺序返回
+    private <R,ID> Map<ID,R> sortByIds(List<ID> ids, Map<ID,R> values) {
+        Map<ID,R> sorted = new LinkedHashMap<>(values.size());
+        for (ID id : ids) {
+            R r = values.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 按前缀执行一次SCAN，cursor为上一页返回的游标，第一页传"0"
+     * 每次只发一条SCAN命令，不会像KEYS那样阻塞redis；返回的key可能少于count甚至为空，游标不为"0"就还没扫完
+     */
+    public CacheScanPage scan(String keyprefix, String cursor, int count) {
+        KeyScanCursor<byte[]> page = join(breaker.executeAsync(() -> async()
+                .scan(ScanCursor.of(cursor), ScanArgs.Builder.matches(keyprefix + "*").limit(count))
+                .toCompletableFuture()));
+        List<String> keys = new ArrayList<>(page.getKeys().size());
+        page.getKeys().forEach(key -> keys.add(new String(key, StandardCharsets.UTF_8)));
+        return new CacheScanPage(keys, page.isFinished() ? "0" : page.getCursor());
+    }
+
+    /**
+     * 用一次pipeline查询剩余TTL（毫秒），-1表示没有过期时间，-2表示key不存在
+     */
+    public Map<String, Long> ttls(List<String> keys) {
+        Map<String, Long> ttls = new LinkedHashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return ttls;
+        }
+        List<Object> results = breaker.execute(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> connection.keyCommands().pTtl(keyBytes(key)));
+            return null;
+        }));
+        for (int i = 0; i < keys.size(); i++) {
+            ttls.put(keys.get(i), (Long) results.get(i));
+        }
+        return ttls;
+    }
+
+    /**
+     * 一次MGET读取并解码，只读不写：不经过本地缓存，不计入指标和访问频率，也不触发重建或编码迁移
+     * 空值标记对应的value为null；key已不存在或无法解码的不在返回结果中
+     * @param list 缓存的是否为列表
+     */
+    public Map<String, Object> peek(List<String> keys, Class<?> type, boolean list) {
+        Map<String, Object> values = new LinkedHashMap<>(keys.size());
+        if (keys.isEmpty()) {
+            return values;
+        }
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < keys.size(); i++) {
+            rawKeys[i] = keyBytes(keys.get(i));
+        }
+        List<byte[]> raws = mGet(rawKeys);
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            byte[] raw = raws.get(i);
+            if (raw == null) {
+                continue;
+            }
+            if (raw.length == 0) {
+                values.put(key, null);
+                continue;
+            }
+            CacheCodec codec = codecOf(raw);
+            try {
+                if (list) {
+                    values.put(key, codec.decodeList(raw, type));
+                } else if (codec.readExpireAt(raw) > 0) {
+                    values.put(key, codec.decodeWithExpire(raw, type).getData());
+                } else {
+                    values.put(key, codec.decode(raw, type));
+                }
+            } catch (Exception e) {
+                log.warn("缓存数据无法解码, key={}", key, e);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 查看单个key：解码后的值、编码、大小、剩余TTL、逻辑过期时间、版本号，只读
+     */
+    public Map<String, Object> inspect(String key, Class<?> type, boolean list) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("key", key);
+        byte[] raw = getRaw(key);
+        info.put("exists", raw != null);
+        if (raw == null) {
+            return info;
+        }
+        info.put("ttlMs", ttls(Collections.singletonList(key)).get(key));
+        info.put("bytes", raw.length);
+        if (raw.length == 0) {
+            info.put("nullMarker", true);
+            return info;
+        }
+        CacheCodec codec = codecOf(raw);
+        info.put("codec", codec.name());
+        try {
+            long expireAt = codec.readExpireAt(raw);
+            if (list) {
+                info.put("value", codec.decodeList(raw, type));
+            } else if (expireAt > 0) {
+                RedisData redisData = codec.decodeWithExpire(raw, type);
+                info.put("value", redisData.getData());
+                info.put("logicalExpireAt", expireAt);
+                info.put("logicalExpired", expireAt <= System.currentTimeMillis());
+                info.put("rebuildMs", redisData.getDelta());
+            } else {
+                info.put("value", codec.decode(raw, type));
+            }
+        } catch (Exception e) {
+            info.put("decodeError", e.getMessage());
+        }
+        if (versions.keySet().stream().anyMatch(key::startsWith)) {
+            byte[] version = getRaw(versionKeyOf(key));
+            info.put("version", version == null ? null : Long.valueOf(new String(version, StandardCharsets.UTF_8)));
+        }
+        return info;
+    }
+
+    /**
+     * 把某个前缀下的所有缓存按当前写入编码重新编码，用于切换编码后的批量迁移
+     * 普通缓存保留剩余TTL，逻辑过期缓存保留逻辑过期时间
+     * @return 实际改写的key数量
+     */
+    public int migrateCodec(String keyprefix, Class<?> type) {
+        int migrated = 0;
+        ScanOptions options = ScanOptions.scanOptions().match(keyprefix + "*").count(500).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                byte[] raw = getRaw(key);
+                if (raw == null || raw.length == 0 || writeCodec.supports(raw)) {
+                    continue;
+                }
+                CacheCodec codec = codecOf(raw);
+                try {
+                    long expireAt = codec.readExpireAt(raw);
+                    Object value = expireAt > 0 ? codec.decodeWithExpire(raw, type).getData() : codec.decode(raw, type);
+                    rewrite(key, value, expireAt);
+                    migrated++;
+                } catch (Exception e) {
+                    log.warn("缓存编码迁移失败, key={}", key, e);
+                }
+            }
+        }
+        return migrated;
+    }
+
+    //redis不可用时降级：先用本地保留的旧数据，没有再经限流器直接查库，同一个key的并发查库合并成一次
+    @SuppressWarnings("unchecked")
+    private <R> R degrade(String keyprefix, String key, Supplier<R> dbFallback) {
+        long start = System.nanoTime();
+        R stale = (R) staleCache.get(key);
+        if (stale != null) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.DEGRADED_STALE, start);
+            return stale;
+        }
+        R r = singleFlight.execute(CACHE_DEGRADE_FLIGHT + key, () -> limitDb(keyprefix, start, dbFallback));
+        staleCache.put(key, r);
+        metrics.record(keyprefix, CacheMetrics.Outcome.DEGRADED_DB, start);
         return r;
     }
 
+    //降级查库限流，等待超时直接失败，redis故障时不把数据库压垮
+    private <R> R limitDb(String keyprefix, long start, Supplier<R> dbFallback) {
+        boolean acquired;
+        try {
+            acquired = degradeLimiter.tryAcquire(degradeWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            metrics.record(keyprefix, CacheMetrics.Outcome.DEGRADED_REJECTED, start);
+            throw new RedisUnavailableException("redis不可用，降级查询数据库的并发已满");
+        }
+        try {
+            return dbFallback.get();
+        } finally {
+            degradeLimiter.release();
+        }
+    }
+
+    //带真实过期时间的写入：TTL按访问频率调整并计入内存统计，再加随机抖动
+    private long ttlForWrite(String key, long baseMillis, int valueBytes) {
+        return expiry.jitter(adaptiveTtl.ttlForWrite(key, baseMillis, key.length() + valueBytes));
+    }
+
+    //写入空值防穿透
+    private void setNull(String key) {
+        setRaw(key, new byte[0], ttlForWrite(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL), 0), TimeUnit.MILLISECONDS);
+    }
+
+    //编码相关
+    private CacheCodec codecOf(byte[] raw) {
+        for (CacheCodec codec : codecs) {
+            if (codec.supports(raw)) {
+                return codec;
+            }
+        }
+        throw new IllegalStateException("无法识别的缓存数据格式");
+    }
+
+    private <R> R tryDecode(String key, CacheCodec codec, byte[] raw, Class<R> type) {
+        try {
+            return codec.decode(raw, type);
+        } catch (Exception e) {
+            log.warn("缓存数据解码失败，按未命中处理, key={}", key, e);
+            return null;
+        }
+    }
 
+    private <R> RedisData tryDecodeWithExpire(String key, CacheCodec codec, byte[] raw, Class<R> type) {
+        try {
+            RedisData redisData = codec.decodeWithExpire(raw, type);
+            return redisData.getData() == null || redisData.getExpireTime() == null ? null : redisData;
+        } catch (Exception e) {
+            log.warn("缓存数据解码失败，按未命中处理, key={}", key, e);
+            return null;
+        }
+    }
 
+    //读到旧编码的数据，改写成当前编码，TTL保持不变
+    private void migrate(String key, CacheCodec codec, Object value, long expireAt) {
+        if (!migrateOnRead || codec == writeCodec || value == null) {
+            return;
+        }
+        rewrite(key, value, expireAt);
+    }
 
+    private void rewrite(String key, Object value, long expireAt) {
+        byte[] raw = expireAt > 0 ? writeCodec.encodeWithExpire(value, expireAt) : writeCodec.encode(value);
+        Long version = expireAt > 0 ? versionOf(key, value) : null;
+        if (version != null) {
+            //带版本号的数据按版本号比较后改写，避免把刚写入的新数据改回旧值
+            setIfNewer(key, raw, version, expireAt - System.currentTimeMillis());
+            return;
+        }
+        breaker.run(() -> stringRedisTemplate.execute((RedisCallback<Object>) c ->
+                c.stringCommands().set(keyBytes(key), raw, Expiration.keepTtl(), RedisStringCommands.SetOption.SET_IF_PRESENT)));
+    }
 
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 
+    //原始字节读写
+    private byte[] getRaw(String key) {
+        return breaker.execute(() ->
+                stringRedisTemplate.execute((RedisCallback<byte[]>) c -> c.stringCommands().get(keyBytes(key))));
+    }
 
+    private void setRaw(String key, byte[] value, Long time, TimeUnit unit) {
+        Expiration expiration = time == null ? Expiration.persistent() : Expiration.from(time, unit);
+        breaker.run(() -> stringRedisTemplate.execute((RedisCallback<Object>) c ->
+                c.stringCommands().set(keyBytes(key), value, expiration, RedisStringCommands.SetOption.upsert())));
+    }
 
+    private static byte[] keyBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
 
     //锁方法
     //上互斥锁
     private boolean tyrlock(String key){
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = breaker.execute(() -> stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS));
         return BooleanUtil.isTrue(flag);
     }
-    //解锁
+    //每个缓存key一把重建锁，不同实体的相同id不会互相影响
+    private static String lockKeyOf(String key) {
+        return CACHE_LOCK_KEY + key;
+    }
+    //抢重建锁，并按前缀记录是否发生争用
+    private boolean tryLock(String keyprefix, String lockKey) {
+        boolean locked = tyrlock(lockKey);
+        metrics.recordLock(keyprefix, locked);
+        return locked;
+    }
+    //解锁；redis不可用时放弃，锁会自动过期
     private void unlock(String key){
-        stringRedisTemplate.delete(key);
+        try {
+            breaker.run(() -> stringRedisTemplate.delete(key));
+        } catch (RedisUnavailableException e) {
+            log.debug("释放重建锁失败，等待自动过期, key={}", key);
+        }
     }
-
-
-
-
-
 }
@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 缓存值的编解码SPI，CacheClient 通过它读写 Redis 中的原始字节
+ * 新旧格式可以共存：读取时按 supports() 自动识别，写入时统一使用配置的编码
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码名称，对应配置项 hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * 是否能识别这段原始数据
+     */
+    boolean supports(byte[] raw);
+
+    /**
+     * 编码普通缓存值（不带逻辑过期时间）
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 编码带逻辑过期时间的缓存值
+     * @param expireAt 逻辑过期时间，毫秒时间戳
+     */
+    default byte[] encodeWithExpire(Object value, long expireAt) {
+        return encodeWithExpire(value, expireAt, 0L);
+    }
+
+    /**
+     * 编码带逻辑过期时间的缓存值，并记录重建耗时
+     * @param expireAt 逻辑过期时间，毫秒时间戳
+     * @param delta 重建这条数据花费的时间，毫秒
+     */
+    byte[] encodeWithExpire(Object value, long expireAt, long delta);
+
+    <R> R decode(byte[] raw, Class<R> type);
+
+    <R> List<R> decodeList(byte[] raw, Class<R> type);
+
+    /**
+     * 只读取逻辑过期时间（毫秒时间戳），没有逻辑过期时间时返回0
+     */
+    long readExpireAt(byte[] raw);
+
+    /**
+     * 读取逻辑过期数据，返回的 RedisData.data 已经是 type 类型的对象
+     */
+    <R> RedisData decodeWithExpire(byte[] raw, Class<R> type);
+}
@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 过期策略，用来打散同时写入的一批key的过期时刻，避免它们在同一瞬间集中重建
+ * 1.TTL抖动：实际写入的TTL在 [ttl*(1-ratio), ttl*(1+ratio)] 之间随机
+ * 2.概率提前刷新（XFetch）：读取时若 now - delta * beta * ln(rand) >= expireAt 就提前在后台重建，
+ *   delta 是上次重建的耗时，重建越慢、离过期越近，提前刷新的概率越大
+ */
+public class CacheExpiry {
+
+    private final double jitterRatio;
+    private final boolean earlyRefresh;
+    private final double beta;
+    //返回 [0,1) 的随机数，测试时可以替换成固定种子
+    private final DoubleSupplier random;
+
+    private final LongAdder earlyRefreshes = new LongAdder();
+
+    public CacheExpiry(double jitterRatio, boolean earlyRefresh, double beta) {
+        this(jitterRatio, earlyRefresh, beta, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    public CacheExpiry(double jitterRatio, boolean earlyRefresh, double beta, DoubleSupplier random) {
+        if (jitterRatio < 0 || jitterRatio >= 1) {
+            throw new IllegalArgumentException("TTL抖动比例必须在[0,1)之间：" + jitterRatio);
+        }
+        this.jitterRatio = jitterRatio;
+        this.earlyRefresh = earlyRefresh;
+        this.beta = beta;
+        this.random = random;
+    }
+
+    /**
+     * 给TTL加上随机抖动
+     */
+    public long jitter(long ttlMillis) {
+        if (jitterRatio == 0 || ttlMillis <= 0) {
+            return ttlMillis;
+        }
+        double factor = 1 + jitterRatio * (2 * random.getAsDouble() - 1);
+        return Math.max(1L, Math.round(ttlMillis * factor));
+    }
+
+    /**
+     * 还没过期的数据是否需要提前刷新
+     * @param now 当前时间，毫秒
+     * @param expireAt 逻辑过期时间，毫秒
+     * @param delta 上次重建耗时，毫秒，0表示没有记录，此时只在过期后重建
+     */
+    public boolean shouldRefreshEarly(long now, long expireAt, long delta) {
+        if (!earlyRefresh || delta <= 0 || now >= expireAt) {
+            return false;
+        }
+        //1 - [0,1) 得到 (0,1]，避免 ln(0)
+        double gap = -delta * beta * Math.log(1 - random.getAsDouble());
+        if (now + gap >= expireAt) {
+            earlyRefreshes.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("jitterRatio", jitterRatio);
+        stats.put("earlyRefresh", earlyRefresh);
+        stats.put("beta", beta);
+        stats.put("earlyRefreshes", earlyRefreshes.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,208 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_RETRY_KEY;
+
+/**
+ * 缓存失效：先更新数据库，事务提交后再删缓存
+ * 1.在事务中调用时，同一个事务内的key先攒起来，提交后一次性删除；回滚则不删
+ * 2.删除后延迟一段时间再删一次（延迟双删），清掉提交前后被并发读回填的旧数据
+ * 3.删除失败的key进入redis中的重试队列（ZSET，多节点共享、重启不丢），定时重试；
+ *   redis本身不可用时先放在本机，恢复后由定时任务直接重删
+ * 任何通过 CacheClient 缓存的实体都可以使用：invalidate(CACHE_XXX_KEY + id)
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final CacheClient cacheClient;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long doubleDeleteDelayMillis;
+    private final long retryIntervalMillis;
+    private final int retryBatchSize;
+
+    private final ScheduledExecutorService delayedDeleter;
+    //redis不可用、连重试队列都写不进去的key
+    private final Set<String> localPending = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder afterCommit = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder();
+    private final LongAdder delayedDeletes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+
+    public CacheInvalidator(CacheClient cacheClient,
+                            StringRedisTemplate stringRedisTemplate,
+                            @Value("${hmdp.cache.invalidate.double-delete-delay-ms:500}") long doubleDeleteDelayMillis,
+                            @Value("${hmdp.cache.invalidate.retry-interval-ms:5000}") long retryIntervalMillis,
+                            @Value("${hmdp.cache.invalidate.retry-batch-size:100}") int retryBatchSize) {
+        this.cacheClient = cacheClient;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.doubleDeleteDelayMillis = doubleDeleteDelayMillis;
+        this.retryIntervalMillis = retryIntervalMillis;
+        this.retryBatchSize = retryBatchSize;
+        this.delayedDeleter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cache-double-delete");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void invalidate(String... keys) {
+        invalidate(Arrays.asList(keys));
+    }
+
+    /**
+     * 删除缓存；在事务中调用时推迟到事务提交之后
+     */
+    @SuppressWarnings("unchecked")
+    public void invalidate(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteWithDoubleDelete(new ArrayList<>(keys));
+            return;
+        }
+        Set<String> pending = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            //本事务第一次失效缓存，注册提交后的回调
+            Set<String> batch = new LinkedHashSet<>();
+            TransactionSynchronizationManager.bindResource(this, batch);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    afterCommit.increment();
+                    deleteWithDoubleDelete(new ArrayList<>(batch));
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CacheInvalidator.this);
+                    if (status == STATUS_ROLLED_BACK) {
+                        rolledBack.increment();
+                    }
+                }
+            });
+            pending = batch;
+        }
+        pending.addAll(keys);
+    }
+
+    private void deleteWithDoubleDelete(List<String> keys) {
+        delete(keys);
+        if (doubleDeleteDelayMillis > 0) {
+            delayedDeleter.schedule(() -> {
+                delayedDeletes.increment();
+                delete(keys);
+            }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //删除失败的key进入重试队列，不向调用方抛异常
+    private boolean delete(Collection<String> keys) {
+        try {
+            cacheClient.delete(keys);
+            deleted.add(keys.size());
+            return true;
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("删除缓存失败，加入重试队列, keys={}", keys, e);
+            enqueueRetry(keys);
+            return false;
+        }
+    }
+
+    private void enqueueRetry(Collection<String> keys) {
+        try {
+            double nextAt = System.currentTimeMillis() + retryIntervalMillis;
+            Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+            keys.forEach(key -> tuples.add(ZSetOperations.TypedTuple.of(key, nextAt)));
+            stringRedisTemplate.opsForZSet().add(CACHE_INVALIDATE_RETRY_KEY, tuples);
+        } catch (Exception e) {
+            log.warn("写入缓存删除重试队列失败，暂存本机, keys={}", keys);
+            localPending.addAll(keys);
+        }
+    }
+
+    /**
+     * 定时重试：先重删本机暂存的key，再取出重试队列中到期的key删除
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.invalidate.retry-interval-ms:5000}")
+    public void retry() {
+        if (!localPending.isEmpty()) {
+            List<String> keys = new ArrayList<>(localPending);
+            if (delete(keys)) {
+                keys.forEach(localPending::remove);
+            }
+            return;
+        }
+        Set<String> due;
+        try {
+            due = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(CACHE_INVALIDATE_RETRY_KEY, 0, System.currentTimeMillis(), 0, retryBatchSize);
+        } catch (Exception e) {
+            log.warn("读取缓存删除重试队列失败", e);
+            return;
+        }
+        if (due == null || due.isEmpty()) {
+            return;
+        }
+        try {
+            cacheClient.delete(due);
+            //删除成功后才移出队列，多个节点同时重试也只是多删一次
+            stringRedisTemplate.opsForZSet().remove(CACHE_INVALIDATE_RETRY_KEY, due.toArray());
+            retried.add(due.size());
+            deleted.add(due.size());
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("重试删除缓存失败, keys={}", due, e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("deleted", deleted.sum());
+        stats.put("afterCommit", afterCommit.sum());
+        stats.put("rolledBack", rolledBack.sum());
+        stats.put("delayedDeletes", delayedDeletes.sum());
+        stats.put("failures", failures.sum());
+        stats.put("retried", retried.sum());
+        stats.put("localPending", localPending.size());
+        try {
+            stats.put("retryQueue", stringRedisTemplate.opsForZSet().zCard(CACHE_INVALIDATE_RETRY_KEY));
+        } catch (Exception e) {
+            stats.put("retryQueue", null);
+        }
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delayedDeleter.shutdown();
+    }
+}
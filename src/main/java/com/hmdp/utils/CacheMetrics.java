@@ -0,0 +1,200 @@
+package com.hmdp.utils;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CacheClient 的指标，按key前缀（cache:shop:、cache:shopType: 等）分组
+ * 每个前缀记录：各种结果的次数和耗时分布、后台重建耗时和成败、重建锁的争用情况
+ * 全部基于 LongAdder，记录时没有锁
+ */
+public class CacheMetrics {
+
+    /**
+     * 一次缓存读取的结果
+     */
+    public enum Outcome {
+        //本地缓存（L1或热点副本）命中
+        LOCAL_HIT,
+        //redis命中且未过期
+        HIT,
+        //逻辑过期，返回了旧数据
+        STALE,
+        //命中缓存的空值
+        NULL_HIT,
+        //未命中，查库后写入缓存
+        MISS,
+        //未命中，数据库也没有，写入空值
+        NULL_CACHED,
+        //被id过滤器（布隆过滤器）拦截
+        FILTERED,
+        //缓存数据无法解码，按未命中处理
+        DECODE_ERROR,
+        //批量查询（MGET），耗时按整个批次记录一次
+        BATCH,
+        //redis不可用，返回了本地保留的旧数据
+        DEGRADED_STALE,
+        //redis不可用，经限流器直接查库
+        DEGRADED_DB,
+        //redis不可用，降级查库的并发已满，请求失败
+        DEGRADED_REJECTED
+    }
+
+    private final ConcurrentHashMap<String, PrefixMetrics> prefixes = new ConcurrentHashMap<>();
+
+    public void record(String prefix, Outcome outcome, long startNanos) {
+        of(prefix).outcome(outcome).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * 只计数不计耗时，用于批量查询中的单个key
+     */
+    public void count(String prefix, Outcome outcome) {
+        of(prefix).outcome(outcome).count.increment();
+    }
+
+    public void recordRebuild(String prefix, long nanos, boolean success) {
+        PrefixMetrics metrics = of(prefix);
+        metrics.rebuild.record(nanos);
+        (success ? metrics.rebuildSuccess : metrics.rebuildFailure).increment();
+    }
+
+    public void recordLock(String prefix, boolean acquired) {
+        PrefixMetrics metrics = of(prefix);
+        (acquired ? metrics.lockAcquired : metrics.lockContended).increment();
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        prefixes.forEach((prefix, metrics) -> snapshot.put(prefix, metrics.snapshot()));
+        return snapshot;
+    }
+
+    private PrefixMetrics of(String prefix) {
+        return prefixes.computeIfAbsent(prefix, p -> new PrefixMetrics());
+    }
+
+    private static class PrefixMetrics {
+        private final EnumMap<Outcome, Histogram> outcomes = new EnumMap<>(Outcome.class);
+        private final Histogram rebuild = new Histogram();
+        private final LongAdder rebuildSuccess = new LongAdder();
+        private final LongAdder rebuildFailure = new LongAdder();
+        private final LongAdder lockAcquired = new LongAdder();
+        private final LongAdder lockContended = new LongAdder();
+
+        private PrefixMetrics() {
+            //提前放好所有结果，之后只读，不需要并发控制
+            for (Outcome outcome : Outcome.values()) {
+                outcomes.put(outcome, new Histogram());
+            }
+        }
+
+        private Histogram outcome(Outcome outcome) {
+            return outcomes.get(outcome);
+        }
+
+        private Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            Map<String, Object> byOutcome = new LinkedHashMap<>();
+            outcomes.forEach((outcome, histogram) -> {
+                if (histogram.count.sum() > 0) {
+                    byOutcome.put(outcome.name(), histogram.snapshot());
+                }
+            });
+            long local = outcomes.get(Outcome.LOCAL_HIT).count.sum();
+            long hit = outcomes.get(Outcome.HIT).count.sum();
+            long stale = outcomes.get(Outcome.STALE).count.sum();
+            long nullHit = outcomes.get(Outcome.NULL_HIT).count.sum();
+            long miss = outcomes.get(Outcome.MISS).count.sum()
+                    + outcomes.get(Outcome.NULL_CACHED).count.sum()
+                    + outcomes.get(Outcome.DECODE_ERROR).count.sum();
+            long served = local + hit + stale + nullHit;
+            //命中率：不用查库就能回答的比例，被过滤器拦截的不计入
+            snapshot.put("hitRate", served + miss == 0 ? 0D : (double) served / (served + miss));
+            snapshot.put("outcomes", byOutcome);
+            Map<String, Object> rebuildStats = new LinkedHashMap<>(rebuild.snapshot());
+            rebuildStats.put("success", rebuildSuccess.sum());
+            rebuildStats.put("failure", rebuildFailure.sum());
+            snapshot.put("rebuild", rebuildStats);
+            Map<String, Object> lock = new LinkedHashMap<>();
+            long acquired = lockAcquired.sum();
+            long contended = lockContended.sum();
+            lock.put("acquired", acquired);
+            lock.put("contended", contended);
+            lock.put("contentionRate", acquired + contended == 0 ? 0D : (double) contended / (acquired + contended));
+            snapshot.put("lock", lock);
+            return snapshot;
+        }
+    }
+
+    /**
+     * 固定分桶的耗时直方图，分位数取所在桶的上界
+     */
+    static class Histogram {
+        //桶上界，微秒
+        private static final long[] BOUNDS_MICROS = {
+                100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+                100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, Long.MAX_VALUE};
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0L);
+        private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length];
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = nanos / 1000;
+            int i = 0;
+            while (micros > BOUNDS_MICROS[i]) {
+                i++;
+            }
+            buckets[i].increment();
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            long total = count.sum();
+            long timed = 0;
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                timed += counts[i];
+            }
+            snapshot.put("count", total);
+            if (timed > 0) {
+                snapshot.put("avgMs", totalNanos.sum() / 1e6 / timed);
+                snapshot.put("p50Ms", percentile(counts, timed, 0.50));
+                snapshot.put("p90Ms", percentile(counts, timed, 0.90));
+                snapshot.put("p99Ms", percentile(counts, timed, 0.99));
+                snapshot.put("maxMs", maxNanos.get() / 1e6);
+            }
+            return snapshot;
+        }
+
+        private double percentile(long[] counts, long total, double q) {
+            long target = (long) Math.ceil(total * q);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    //最后一个桶没有上界，用最大值代替
+                    return i == counts.length - 1 ? maxNanos.get() / 1e6 : BOUNDS_MICROS[i] / 1000D;
+                }
+            }
+            return maxNanos.get() / 1e6;
+        }
+    }
+}
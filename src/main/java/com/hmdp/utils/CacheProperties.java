@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * CacheClient 的配置，对应 application.yaml 中的 hmdp.cache
+ * 缓存失效、重建线程池、巡检等其它组件的配置也在 hmdp.cache 下，由各自的组件读取，这里不绑定
+ */
+@Data
+@Component
+@ConfigurationProperties("hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 写入时使用的编码：json 或 binary
+     */
+    private String codec = "json";
+
+    /**
+     * 读到旧编码的数据时，是否顺手按新编码改写
+     */
+    private boolean codecMigrateOnRead = true;
+
+    /**
+     * TTL和逻辑过期时长的随机抖动比例
+     */
+    private double ttlJitter = 0.1;
+
+    private Local local = new Local();
+
+    private Adaptive adaptiveTtl = new Adaptive();
+
+    private EarlyRefresh earlyRefresh = new EarlyRefresh();
+
+    private Hot hot = new Hot();
+
+    private Async async = new Async();
+
+    private Degrade degrade = new Degrade();
+
+    /**
+     * 进程内一级缓存
+     */
+    @Data
+    public static class Local {
+        private boolean enabled = false;
+        private int capacity = 1000;
+        private long ttlSeconds = 10;
+    }
+
+    /**
+     * 按访问频率调整每个key的TTL
+     */
+    @Data
+    public static class Adaptive {
+        private boolean enabled = false;
+        private double minFactor = 0.25;
+        private double maxFactor = 4.0;
+        private long hotHits = 64;
+        private int sketchWidth = 8192;
+    }
+
+    /**
+     * 逻辑过期数据按概率提前刷新
+     */
+    @Data
+    public static class EarlyRefresh {
+        private boolean enabled = true;
+        private double beta = 1.0;
+    }
+
+    /**
+     * 热点key探测和本地副本
+     */
+    @Data
+    public static class Hot {
+        private boolean enabled = false;
+        private int windowSeconds = 10;
+        private double thresholdQps = 200;
+        private double sampleRate = 0.1;
+        private int maxKeys = 256;
+        private long localTtlMs = 1000;
+    }
+
+    /**
+     * 异步API的查库线程池
+     */
+    @Data
+    public static class Async {
+        private int loaderThreads = 16;
+        private int queueCapacity = 1000;
+    }
+
+    /**
+     * redis不可用时的降级
+     */
+    @Data
+    public static class Degrade {
+        private int staleCapacity = 10000;
+        private long staleTtlSeconds = 600;
+        private int dbConcurrency = 20;
+        private long dbWaitMs = 200;
+    }
+}
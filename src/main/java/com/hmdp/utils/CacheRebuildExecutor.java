@@ -0,0 +1,250 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 全局共享的缓存重建线程池
+ * 1.队列有界，大批key同时逻辑过期时不会无限堆积任务撑爆内存
+ * 2.同一个key排队中/执行中的重建只保留一个，重复提交直接复用；批量任务按其中的每个key去重
+ * 3.队列满时按配置丢弃（drop，逻辑过期的旧数据还能继续用，下次读取会再触发）
+ *   或暂存（defer，有界的等待区，有空闲时补交）
+ * 4.统计队列深度、重建耗时、失败次数
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    public static final String POLICY_DROP = "drop";
+    public static final String POLICY_DEFER = "defer";
+
+    private final ThreadPoolExecutor executor;
+    private final String rejectPolicy;
+    private final int deferCapacity;
+
+    //排队中或执行中的重建任务，key -> 任务完成的future
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    //队列满时暂存的任务，同一个key只保留一个
+    private final LinkedHashMap<String, Task> deferred = new LinkedHashMap<>();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder deferredTotal = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Long::max, 0L);
+
+    public CacheRebuildExecutor(@Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity,
+                                @Value("${hmdp.cache.rebuild.reject-policy:drop}") String rejectPolicy,
+                                @Value("${hmdp.cache.rebuild.defer-capacity:10000}") int deferCapacity) {
+        if (!POLICY_DROP.equals(rejectPolicy) && !POLICY_DEFER.equals(rejectPolicy)) {
+            throw new IllegalArgumentException("未知的重建拒绝策略：" + rejectPolicy);
+        }
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "cache-rebuild-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.rejectPolicy = rejectPolicy;
+        this.deferCapacity = deferCapacity;
+    }
+
+    /**
+     * 提交一个重建任务
+     * @param key 去重用的key，通常就是缓存key
+     * @return 任务完成时结束的future；任务失败或被丢弃时异常结束（被丢弃时为RejectedExecutionException）
+     */
+    public CompletableFuture<Void> submit(String key, Runnable task) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CompletableFuture<Void> existing = pending.putIfAbsent(key, future);
+        if (existing != null) {
+            deduplicated.increment();
+            return existing;
+        }
+        submitted.increment();
+        dispatch(new Task(key, Collections.singletonList(key), task, future));
+        return future;
+    }
+
+    /**
+     * 提交一个批量重建任务，按key逐个去重：已在排队或执行中的key（单个或其它批次提交的）不再重复重建
+     * @param keys 去重用的key，通常就是缓存key
+     * @param task 参数为本批次实际负责重建的key
+     * @return 任务完成时结束的future；所有key都已在重建中时返回已完成的future
+     */
+    public CompletableFuture<Void> submitBatch(Collection<String> keys, Consumer<List<String>> task) {
+        return submitBatch(keys, task, claimed -> { });
+    }
+
+    /**
+     * 同上，任务结束（成功、失败或被丢弃）后以本批次实际负责的key回调 whenDone，
+     * 调用方据此只释放自己负责的key上的锁，被去重的key仍由原来的任务负责
+     */
+    public CompletableFuture<Void> submitBatch(Collection<String> keys, Consumer<List<String>> task,
+                                               Consumer<List<String>> whenDone) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        List<String> claimed = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (pending.putIfAbsent(key, future) == null) {
+                claimed.add(key);
+            } else {
+                deduplicated.increment();
+            }
+        }
+        if (claimed.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        future.whenComplete((v, e) -> whenDone.accept(claimed));
+        submitted.increment();
+        dispatch(new Task(claimed.size() == 1 ? claimed.get(0) : claimed.get(0) + "等" + claimed.size() + "个key",
+                claimed, () -> task.accept(claimed), future));
+        return future;
+    }
+
+    public boolean isPending(String key) {
+        return pending.containsKey(key);
+    }
+
+    private void dispatch(Task task) {
+        try {
+            executor.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            if (POLICY_DEFER.equals(rejectPolicy) && !executor.isShutdown() && defer(task)) {
+                return;
+            }
+            dropped.increment();
+            log.warn("重建队列已满，丢弃重建任务, key={}", task.key);
+            finish(task, e);
+        }
+    }
+
+    private boolean defer(Task task) {
+        synchronized (deferred) {
+            if (deferred.size() >= deferCapacity) {
+                return false;
+            }
+            deferred.put(task.key, task);
+        }
+        deferredTotal.increment();
+        return true;
+    }
+
+    private void run(Task task) {
+        long start = System.nanoTime();
+        waitNanos.add(start - task.createdAt);
+        Throwable error = null;
+        try {
+            task.runnable.run();
+            completed.increment();
+        } catch (Throwable e) {
+            failed.increment();
+            log.error("缓存重建失败, key={}", task.key, e);
+            error = e;
+        } finally {
+            long cost = System.nanoTime() - start;
+            runNanos.add(cost);
+            maxRunNanos.accumulate(cost);
+        }
+        finish(task, error);
+        //执行完一个，补交一个暂存的任务
+        Task next = pollDeferred();
+        if (next != null) {
+            dispatch(next);
+        }
+    }
+
+    private Task pollDeferred() {
+        synchronized (deferred) {
+            Iterator<Task> it = deferred.values().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            Task next = it.next();
+            it.remove();
+            return next;
+        }
+    }
+
+    private void finish(Task task, Throwable error) {
+        task.keys.forEach(key -> pending.remove(key, task.future));
+        if (error == null) {
+            task.future.complete(null);
+        } else {
+            task.future.completeExceptionally(error);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        long done = completed.sum() + failed.sum();
+        stats.put("threads", executor.getPoolSize());
+        stats.put("active", executor.getActiveCount());
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("queueRemaining", executor.getQueue().remainingCapacity());
+        stats.put("pending", pending.size());
+        synchronized (deferred) {
+            stats.put("deferredDepth", deferred.size());
+        }
+        stats.put("rejectPolicy", rejectPolicy);
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("deferred", deferredTotal.sum());
+        stats.put("avgWaitMillis", done == 0 ? 0D : waitNanos.sum() / 1e6 / done);
+        stats.put("avgRunMillis", done == 0 ? 0D : runNanos.sum() / 1e6 / done);
+        stats.put("maxRunMillis", maxRunNanos.get() / 1e6);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class Task {
+        //日志和暂存区使用的名字
+        private final String key;
+        private final List<String> keys;
+        private final Runnable runnable;
+        private final CompletableFuture<Void> future;
+        private final long createdAt = System.nanoTime();
+
+        private Task(String key, List<String> keys, Runnable runnable, CompletableFuture<Void> future) {
+            this.key = key;
+            this.keys = keys;
+            this.runnable = runnable;
+            this.future = future;
+        }
+    }
+}
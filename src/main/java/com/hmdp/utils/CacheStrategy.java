@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+/**
+ * @HmdpCached 使用的缓存策略，对应 CacheClient 中的查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 缓存穿透————缓存空值，对应 queryWithPassThrough
+     */
+    PASS_THROUGH,
+    /**
+     * 缓存击穿————逻辑过期，过期后返回旧数据并异步重建，对应 queryWithLogicalExpire
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 缓存击穿————互斥锁，未命中时只有一个线程查库，对应 queryWithMutex
+     */
+    MUTEX
+}
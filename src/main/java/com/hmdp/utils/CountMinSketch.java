@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch：固定内存的近似计数，估计值只会偏大不会偏小
+ * 深度固定为4行，宽度取2的幂，每行用双重哈希 h1 + i*h2 取下标；内存为 深度*宽度 个long，与key的数量无关
+ * HotKeyDetector（按时间桶统计QPS）和 AdaptiveTtl（带衰减的访问频率）共用
+ */
+class CountMinSketch {
+
+    private static final int DEPTH = 4;
+
+    private final int width;
+    //DEPTH行依次平铺
+    private final AtomicLongArray counters;
+
+    CountMinSketch(int width) {
+        this.width = widthOf(width);
+        this.counters = new AtomicLongArray(DEPTH * this.width);
+    }
+
+    /**
+     * 实际使用的宽度：不小于64的2的幂，用位运算取下标
+     */
+    static int widthOf(int width) {
+        return Integer.highestOneBit(Math.max(64, width - 1) << 1);
+    }
+
+    int width() {
+        return width;
+    }
+
+    void add(String key) {
+        int h1 = hash(key);
+        int h2 = (h1 >>> 16) | 1;
+        for (int i = 0; i < DEPTH; i++) {
+            counters.incrementAndGet(i * width + ((h1 + i * h2) & (width - 1)));
+        }
+    }
+
+    /**
+     * 估计的计数，取各行的最小值
+     */
+    long estimate(String key) {
+        int h1 = hash(key);
+        int h2 = (h1 >>> 16) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, counters.get(i * width + ((h1 + i * h2) & (width - 1))));
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半；和并发的add之间不加锁，个别计数可能少减一次，可以接受
+     */
+    void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, counters.get(i) >>> 1);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0L);
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,162 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 处理 @HmdpCached 和 @HmdpCacheEvict
+ * 查询：按注解的策略调用 CacheClient，未命中时才执行原方法查库
+ * 删除：原方法正常返回后交给 CacheInvalidator
+ */
+@Aspect
+@Component
+public class HmdpCacheAspect {
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+    @Resource
+    private BeanFactory beanFactory;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer nameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final ConcurrentHashMap<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(cached)")
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Object cached(ProceedingJoinPoint joinPoint, HmdpCached cached) {
+        Method method = methodOf(joinPoint);
+        boolean wrapped = Result.class.isAssignableFrom(method.getReturnType());
+        String id = keyOf(method, joinPoint.getArgs(), cached.key());
+        //未命中时执行原方法，返回 Result 的取出其中的data
+        //逻辑过期的查库在重建线程上执行，那时当前调用早已返回，joinPoint不能再proceed，改为直接反射调用目标对象
+        Function<String, Object> dbFallback = cached.strategy() == CacheStrategy.LOGICAL_EXPIRE && !cached.list()
+                ? detached(joinPoint.getTarget(), method, joinPoint.getArgs().clone(), wrapped)
+                : ignored -> unwrap(proceed(joinPoint), wrapped);
+
+        Object value;
+        if (cached.list()) {
+            if (cached.strategy() != CacheStrategy.PASS_THROUGH) {
+                throw new IllegalStateException("列表缓存只支持PASS_THROUGH策略：" + method);
+            }
+            value = cacheClient.queryListWithPassThrough(cached.prefix(), id, (Class) cached.type(),
+                    () -> (List) dbFallback.apply(id), cached.ttl(), cached.unit());
+        } else {
+            Class<Object> type = (Class<Object>) cached.type();
+            Predicate<String> filter = filterOf(cached.filter());
+            switch (cached.strategy()) {
+                case LOGICAL_EXPIRE:
+                    value = cacheClient.queryWithLogicalExpire(
+                            cached.prefix(), id, type, dbFallback, cached.ttl(), cached.unit(), filter);
+                    break;
+                case MUTEX:
+                    value = cacheClient.queryWithMutex(
+                            cached.prefix(), id, type, dbFallback, cached.ttl(), cached.unit(), filter);
+                    break;
+                default:
+                    value = cacheClient.queryWithPassThrough(
+                            cached.prefix(), id, type, dbFallback, cached.ttl(), cached.unit(), filter);
+            }
+        }
+        if (!wrapped) {
+            return value;
+        }
+        return value == null ? Result.fail(cached.nullMessage()) : Result.ok(value);
+    }
+
+    @AfterReturning("@annotation(com.hmdp.utils.HmdpCacheEvict) || @annotation(com.hmdp.utils.HmdpCacheEvicts)")
+    public void evict(JoinPoint joinPoint) {
+        Method method = methodOf(joinPoint);
+        Set<HmdpCacheEvict> evicts = AnnotatedElementUtils.getMergedRepeatableAnnotations(method, HmdpCacheEvict.class);
+        List<String> keys = new ArrayList<>(evicts.size());
+        for (HmdpCacheEvict evict : evicts) {
+            keys.add(evict.prefix() + keyOf(method, joinPoint.getArgs(), evict.key()));
+        }
+        cacheInvalidator.invalidate(keys);
+    }
+
+    private Method methodOf(JoinPoint joinPoint) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        return AopUtils.getMostSpecificMethod(method, joinPoint.getTarget().getClass());
+    }
+
+    private String keyOf(Method method, Object[] args, String spel) {
+        if (StrUtil.isBlank(spel)) {
+            return StrUtil.join(":", args);
+        }
+        Expression expression = expressions.computeIfAbsent(spel, parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(null, method, args, nameDiscoverer);
+        return String.valueOf(expression.getValue(context));
+    }
+
+    //按bean名称找到布隆过滤器，id不是数字的一律放行
+    private Predicate<String> filterOf(String beanName) {
+        if (StrUtil.isBlank(beanName)) {
+            return null;
+        }
+        IdBloomFilter<?> filter = beanFactory.getBean(beanName, IdBloomFilter.class);
+        return id -> {
+            try {
+                return filter.mightContain(Long.valueOf(id));
+            } catch (NumberFormatException e) {
+                return true;
+            }
+        };
+    }
+
+    private static Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //脱离本次调用的查库逻辑：只持有目标对象、方法和参数副本，在任意线程上执行都不依赖调用链的状态
+    private static Function<String, Object> detached(Object target, Method method, Object[] args, boolean wrapped) {
+        return ignored -> {
+            try {
+                return unwrap(AopUtils.invokeJoinpointUsingReflection(target, method, args), wrapped);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    private static Object unwrap(Object value, boolean wrapped) {
+        if (!wrapped) {
+            return value;
+        }
+        Result result = (Result) value;
+        return result == null || !Boolean.TRUE.equals(result.getSuccess()) ? null : result.getData();
+    }
+}
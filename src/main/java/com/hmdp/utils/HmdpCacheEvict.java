@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 方法正常返回后删除缓存，交给 CacheInvalidator：在事务中时推迟到提交之后，并做延迟双删
+ * 同一个方法可以标注多个，删除多个缓存
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Repeatable(HmdpCacheEvicts.class)
+public @interface HmdpCacheEvict {
+
+    /**
+     * 缓存key前缀
+     */
+    String prefix();
+
+    /**
+     * 前缀后面的部分，SpEL表达式，规则同 HmdpCached.key
+     */
+    String key() default "";
+}
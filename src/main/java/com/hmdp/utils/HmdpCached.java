@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 给service的查询方法加缓存，由 HmdpCacheAspect 织入，交给 CacheClient 按策略读写
+ * 方法体只需要写查库逻辑；返回 Result 的方法缓存其中的data，数据不存在时返回 Result.fail(nullMessage)
+ * <pre>
+ * &#64;HmdpCached(prefix = CACHE_SHOP_KEY, type = Shop.class, ttl = 30, strategy = CacheStrategy.LOGICAL_EXPIRE)
+ * public Result queryById(Long id) { ... }
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCached {
+
+    /**
+     * 缓存key前缀，例如 cache:shop:
+     */
+    String prefix();
+
+    /**
+     * 前缀后面的部分，SpEL表达式，例如 #id、#voucher.shopId
+     * 为空时用所有参数以冒号拼接，没有参数时缓存key就是前缀本身
+     */
+    String key() default "";
+
+    /**
+     * 缓存的数据类型；list = true 时为列表元素的类型
+     */
+    Class<?> type();
+
+    /**
+     * 缓存的数据是否为列表，列表只支持 PASS_THROUGH 策略
+     */
+    boolean list() default false;
+
+    long ttl();
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    /**
+     * IdBloomFilter 的bean名称，过滤器判定不存在的id直接返回，不碰redis和数据库
+     */
+    String filter() default "";
+
+    /**
+     * 返回 Result 的方法在数据不存在时的错误信息
+     */
+    String nullMessage() default "数据不存在！";
+}
@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测：滑动窗口 + Count-Min Sketch
+ * 窗口切成若干个时间桶，每个桶一个 Count-Min Sketch，过期的桶在下次写入时清零复用
+ * 按采样率记录访问，估算出的QPS超过阈值的key标记为热点，低于阈值一半或窗口内没再访问时摘除
+ * 内存占用固定为 桶数 * 深度 * 宽度 个long，与key的数量无关
+ */
+public class HotKeyDetector {
+
+    private final int width;
+    private final int buckets;
+    private final long bucketMillis;
+    private final double sampleRate;
+    private final double thresholdQps;
+    private final int maxHotKeys;
+
+    //每个桶一个sketch
+    private final CountMinSketch[] sketches;
+    //每个桶当前对应的时间片编号
+    private final AtomicLongArray epochs;
+
+    private final ConcurrentHashMap<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    private final LongAdder promotions = new LongAdder();
+
+    public HotKeyDetector(int windowSeconds, double thresholdQps, double sampleRate, int width, int maxHotKeys) {
+        this.buckets = Math.max(1, windowSeconds);
+        this.bucketMillis = 1000L;
+        this.thresholdQps = thresholdQps;
+        this.sampleRate = Math.min(1D, Math.max(0.0001D, sampleRate));
+        this.width = CountMinSketch.widthOf(width);
+        this.maxHotKeys = maxHotKeys;
+        this.sketches = new CountMinSketch[buckets];
+        for (int i = 0; i < buckets; i++) {
+            sketches[i] = new CountMinSketch(this.width);
+        }
+        this.epochs = new AtomicLongArray(buckets);
+    }
+
+    /**
+     * 记录一次访问
+     * @return 该key当前是否为热点
+     */
+    public boolean record(String key) {
+        if (sampleRate < 1D && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return isHot(key);
+        }
+        long now = System.currentTimeMillis();
+        long epoch = now / bucketMillis;
+        bucket(epoch).add(key);
+        double qps = estimate(key, epoch) / sampleRate / (buckets * bucketMillis / 1000D);
+        HotKey hot = hotKeys.get(key);
+        if (qps >= thresholdQps) {
+            if (hot == null) {
+                if (hotKeys.size() >= maxHotKeys) {
+                    return false;
+                }
+                hot = hotKeys.computeIfAbsent(key, k -> {
+                    promotions.increment();
+                    return new HotKey(now);
+                });
+            }
+            hot.qps = qps;
+            hot.lastSeen = now;
+            return true;
+        }
+        if (hot != null) {
+            if (qps < thresholdQps / 2) {
+                //低于阈值一半才摘除，避免在阈值附近反复进出
+                hotKeys.remove(key, hot);
+                return false;
+            }
+            hot.qps = qps;
+            hot.lastSeen = now;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isHot(String key) {
+        HotKey hot = hotKeys.get(key);
+        if (hot == null) {
+            return false;
+        }
+        if (hot.lastSeen < System.currentTimeMillis() - buckets * bucketMillis) {
+            //整个窗口都没有再被采样到，已经冷了
+            hotKeys.remove(key, hot);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 当前的热点key，按QPS从高到低
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (String key : hotKeys.keySet()) {
+            HotKey hot = hotKeys.get(key);
+            if (hot == null || !isHot(key)) {
+                continue;
+            }
+            Map<String, Object> item = new HashMap<>();
+            item.put("key", key);
+            item.put("qps", Math.round(hot.qps));
+            item.put("since", hot.since);
+            item.put("lastSeen", hot.lastSeen);
+            list.add(item);
+        }
+        list.sort(Comparator.comparing((Map<String, Object> m) -> (Long) m.get("qps")).reversed());
+        return list;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("windowSeconds", buckets * bucketMillis / 1000);
+        stats.put("thresholdQps", thresholdQps);
+        stats.put("sampleRate", sampleRate);
+        stats.put("sketchWidth", width);
+        stats.put("hotKeys", hotKeys.size());
+        stats.put("promotions", promotions.sum());
+        return stats;
+    }
+
+    //取当前时间片对应的桶，桶里还是旧时间片的数据就先清零
+    private CountMinSketch bucket(long epoch) {
+        int idx = (int) (epoch % buckets);
+        if (epochs.get(idx) != epoch) {
+            synchronized (sketches[idx]) {
+                if (epochs.get(idx) != epoch) {
+                    sketches[idx].clear();
+                    epochs.set(idx, epoch);
+                }
+            }
+        }
+        return sketches[idx];
+    }
+
+    //窗口内所有桶的估计值之和
+    private long estimate(String key, long epoch) {
+        long sum = 0;
+        for (int b = 0; b < buckets; b++) {
+            if (epochs.get(b) <= epoch - buckets) {
+                continue;
+            }
+            sum += sketches[b].estimate(key);
+        }
+        return sum;
+    }
+
+    private static class HotKey {
+        private final long since;
+        private volatile double qps;
+        private volatile long lastSeen;
+
+        private HotKey(long since) {
+            this.since = since;
+            this.lastSeen = since;
+        }
+    }
+}
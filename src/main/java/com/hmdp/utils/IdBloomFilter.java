@@ -0,0 +1,128 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_ADD_CHANNEL;
+
+/**
+ * 某张表主键id的布隆过滤器，用于拦截不存在的id，防止缓存穿透
+ * 启动时按id分批扫描全表构建，新增数据时追加并广播给其它节点，定时全量重建以清掉已删除的id
+ */
+@Slf4j
+public class IdBloomFilter<T> {
+
+    //每批扫描的id数量
+    private static final int SCAN_BATCH_SIZE = 1000;
+
+    private final String name;
+    private final BaseMapper<T> mapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long expectedInsertions;
+    private final double fpp;
+
+    //当前生效的过滤器，首次构建完成前为null，此时所有id一律放行
+    private volatile BloomFilter current;
+    //重建过程中新插入的id要同时写进正在构建的过滤器，避免切换后丢失
+    private volatile BloomFilter building;
+    private volatile long lastBuildSize;
+
+    public IdBloomFilter(String name, BaseMapper<T> mapper, StringRedisTemplate stringRedisTemplate,
+                         long expectedInsertions, double fpp) {
+        this.name = name;
+        this.mapper = mapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean mightContain(Long id) {
+        if (id == null) {
+            return false;
+        }
+        BloomFilter filter = current;
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，本机追加并通知其它节点
+     */
+    public void add(Long id) {
+        addLocal(id);
+        stringRedisTemplate.convertAndSend(BLOOM_FILTER_ADD_CHANNEL, name + ":" + id);
+    }
+
+    public void addLocal(Long id) {
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(id);
+        }
+        BloomFilter next = building;
+        if (next != null) {
+            next.put(id);
+        }
+    }
+
+    /**
+     * 全量重建：按id升序分批扫描主键，构建完成后整体替换
+     */
+    public synchronized void rebuild() {
+        long begin = System.currentTimeMillis();
+        //1.按当前数据量的2倍预留空间，给后续新增留余量
+        long count = mapper.selectCount(new QueryWrapper<T>());
+        BloomFilter next = new BloomFilter(Math.max(expectedInsertions, count * 2), fpp);
+        building = next;
+        try {
+            //2.按id分批扫描，只查主键列
+            long lastId = 0;
+            long size = 0;
+            while (true) {
+                List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                        .select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("limit " + SCAN_BATCH_SIZE));
+                if (ids == null || ids.isEmpty()) {
+                    break;
+                }
+                for (Object id : ids) {
+                    lastId = ((Number) id).longValue();
+                    next.put(lastId);
+                }
+                size += ids.size();
+                if (ids.size() < SCAN_BATCH_SIZE) {
+                    break;
+                }
+            }
+            //3.替换
+            current = next;
+            lastBuildSize = size;
+            log.info("布隆过滤器[{}]重建完成，id数量：{}，耗时：{}ms", name, size, System.currentTimeMillis() - begin);
+        } finally {
+            building = null;
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        BloomFilter filter = current;
+        stats.put("ready", filter != null);
+        stats.put("fpp", fpp);
+        stats.put("size", lastBuildSize);
+        if (filter != null) {
+            stats.put("bitSize", filter.bitSize());
+            stats.put("hashCount", filter.hashCount());
+        }
+        return stats;
+    }
+}
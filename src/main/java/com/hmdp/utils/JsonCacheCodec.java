@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSON;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Hutool JSON 编码，与原来的存储格式完全一致：
+ * 普通缓存直接存对象JSON，逻辑过期缓存存 RedisData 的JSON
+ */
+@Component
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(byte[] raw) {
+        return raw.length > 0 && (raw[0] == '{' || raw[0] == '[');
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] encodeWithExpire(Object value, long expireAt, long delta) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireAt), ZoneId.systemDefault()));
+        redisData.setDelta(delta);
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] raw, Class<R> type) {
+        JSON json = parse(raw);
+        if (isRedisData(json)) {
+            json = (JSON) ((JSONObject) json).get("data");
+        }
+        return json.toBean(type);
+    }
+
+    @Override
+    public <R> List<R> decodeList(byte[] raw, Class<R> type) {
+        JSON json = parse(raw);
+        if (isRedisData(json)) {
+            json = (JSON) ((JSONObject) json).get("data");
+        }
+        return ((JSONArray) json).toList(type);
+    }
+
+    @Override
+    public long readExpireAt(byte[] raw) {
+        JSON json = parse(raw);
+        if (!isRedisData(json)) {
+            return 0L;
+        }
+        return toMillis(((JSONObject) json).getLocalDateTime("expireTime", null));
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] raw, Class<R> type) {
+        //只解析一次：先得到JSONObject，再把data部分转成目标类型
+        JSONObject json = (JSONObject) parse(raw);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(json.getLocalDateTime("expireTime", null));
+        //旧数据没有delta字段，按0处理
+        redisData.setDelta(json.getLong("delta", 0L));
+        Object data = json.get("data");
+        redisData.setData(data instanceof JSON ? ((JSON) data).toBean(type) : null);
+        return redisData;
+    }
+
+    private JSON parse(byte[] raw) {
+        return JSONUtil.parse(new String(raw, StandardCharsets.UTF_8));
+    }
+
+    private boolean isRedisData(JSON json) {
+        return json instanceof JSONObject
+                && ((JSONObject) json).containsKey("expireTime")
+                && ((JSONObject) json).containsKey("data");
+    }
+
+    private long toMillis(LocalDateTime time) {
+        return time == null ? 0L : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
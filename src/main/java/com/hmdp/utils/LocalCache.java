@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内一级缓存（L1），放在 Redis 前面，热点数据命中时不再走网络和 JSON 解析
+ * 按容量做 LRU 淘汰，按写入时间做 TTL 过期，命中/未命中/淘汰次数可通过 stats() 查看
+ */
+public class LocalCache {
+
+    private final int capacity;
+    private final long ttlMillis;
+    //accessOrder = true，按访问顺序排列，最久未访问的在链表头部
+    private final LinkedHashMap<String, Entry> map;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public LocalCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+        this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                //超出容量，淘汰最久未访问的条目
+                if (size() > LocalCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public synchronized Object get(String key) {
+        Entry entry = map.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        //已过期，顺手删除
+        if (entry.expireAt <= System.currentTimeMillis()) {
+            map.remove(key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public synchronized void put(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        map.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void invalidate(String key) {
+        map.remove(key);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        long hit = hits.sum();
+        long miss = misses.sum();
+        stats.put("size", size());
+        stats.put("capacity", capacity);
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        stats.put("hitRate", hit + miss == 0 ? 0D : (double) hit / (hit + miss));
+        return stats;
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.db.Session;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
+import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -16,12 +17,20 @@ import javax.servlet.http.HttpSession;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+@Slf4j
 public class LoginInterceptor implements HandlerInterceptor {
 
+    //redis不可用时用最近校验通过的token放行，只认识这段时间内活跃过的用户
+    private static final int TOKEN_CACHE_CAPACITY = 10000;
+    private static final long TOKEN_CACHE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
     private StringRedisTemplate stringRedisTemplate;
+    private final RedisCircuitBreaker breaker;
+    private final LocalCache tokenCache = new LocalCache(TOKEN_CACHE_CAPACITY, TOKEN_CACHE_TTL_MILLIS);
 
-    public LoginInterceptor(StringRedisTemplate stringRedisTemplate) {
+    public LoginInterceptor(StringRedisTemplate stringRedisTemplate, RedisCircuitBreaker breaker) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.breaker = breaker;
     }
 
     @Override
@@ -35,9 +44,22 @@ public class LoginInterceptor implements HandlerInterceptor {
 
 
         String key = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash()
-                .entries(key);
+        Map<Object, Object> userMap;
+        try {
+            userMap = breaker.execute(() -> stringRedisTemplate.opsForHash().entries(key));
+        } catch (RedisUnavailableException e) {
+            //redis不可用：最近见过的token继续放行，其余返回503，不能误判成未登录
+            UserDTO cached = (UserDTO) tokenCache.get(token);
+            if (cached == null) {
+                log.warn("redis不可用，无法校验登录状态");
+                response.setStatus(503);
+                return false;
+            }
+            UserHolder.saveUser(cached);
+            return true;
+        }
         if(userMap.isEmpty()) {
+            tokenCache.invalidate(token);
             response.setStatus(401);
             return false;
         }
@@ -45,7 +67,12 @@ public class LoginInterceptor implements HandlerInterceptor {
 //        UserDTO userDTO = new UserDTO();
 //        BeanUtils.populate(userDTO, userMap);
         UserHolder.saveUser(userDTO);
-        stringRedisTemplate.expire(key,RedisConstants.LOGIN_CODE_TTL, TimeUnit.MINUTES);
+        tokenCache.put(token, userDTO);
+        try {
+            breaker.run(() -> stringRedisTemplate.expire(key,RedisConstants.LOGIN_CODE_TTL, TimeUnit.MINUTES));
+        } catch (RedisUnavailableException e) {
+            log.debug("刷新登录有效期失败, token={}", token);
+        }
         return true;
     }
 
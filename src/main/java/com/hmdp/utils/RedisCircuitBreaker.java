@@ -0,0 +1,282 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Redis 访问的熔断器，CacheClient 和 LoginInterceptor 共用一个
+ * 1.关闭（CLOSED）：正常访问，按1秒一个桶的滑动窗口统计调用次数和失败次数，超时的慢调用也算失败，
+ *   窗口内调用数达到下限且失败率超过阈值时打开
+ * 2.打开（OPEN）：不再访问redis，直接抛 RedisUnavailableException，由调用方降级；持续一段时间后进入半开
+ * 3.半开（HALF_OPEN）：放行少量试探调用，全部成功则关闭，任意一次失败重新打开
+ * 状态切换次数按 "原状态->新状态" 计数，可通过 stats() 查看
+ */
+@Slf4j
+@Component
+public class RedisCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean enabled;
+    private final int buckets;
+    private final int minimumCalls;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+
+    private volatile State state = State.CLOSED;
+    private volatile long stateSince;
+    //每个桶对应的秒数，以及该秒内的调用数、失败数
+    private final AtomicLongArray epochs;
+    private final AtomicLongArray calls;
+    private final AtomicLongArray failures;
+    //半开状态下已放行、已成功的试探调用
+    private final AtomicInteger halfOpenPermits = new AtomicInteger();
+    private final AtomicInteger halfOpenSuccesses = new AtomicInteger();
+
+    private final ConcurrentHashMap<String, LongAdder> transitions = new ConcurrentHashMap<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder slow = new LongAdder();
+
+    @Autowired
+    public RedisCircuitBreaker(@Value("${hmdp.redis.breaker.enabled:true}") boolean enabled,
+                               @Value("${hmdp.redis.breaker.window-seconds:10}") int windowSeconds,
+                               @Value("${hmdp.redis.breaker.minimum-calls:20}") int minimumCalls,
+                               @Value("${hmdp.redis.breaker.failure-rate:0.5}") double failureRate,
+                               @Value("${hmdp.redis.breaker.slow-call-ms:500}") long slowCallMillis,
+                               @Value("${hmdp.redis.breaker.open-ms:5000}") long openMillis,
+                               @Value("${hmdp.redis.breaker.half-open-calls:5}") int halfOpenCalls) {
+        this(enabled, windowSeconds, minimumCalls, failureRate, slowCallMillis, openMillis, halfOpenCalls,
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock 毫秒时钟，测试时可以手动推进
+     */
+    public RedisCircuitBreaker(boolean enabled, int windowSeconds, int minimumCalls, double failureRate,
+                               long slowCallMillis, long openMillis, int halfOpenCalls, LongSupplier clock) {
+        this.enabled = enabled;
+        this.buckets = Math.max(1, windowSeconds);
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.failureRate = failureRate;
+        this.slowCallNanos = slowCallMillis * 1_000_000L;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.clock = clock;
+        this.epochs = new AtomicLongArray(buckets);
+        this.calls = new AtomicLongArray(buckets);
+        this.failures = new AtomicLongArray(buckets);
+        this.stateSince = clock.getAsLong();
+    }
+
+    /**
+     * 经过熔断器执行一次redis调用
+     * @throws RedisUnavailableException 熔断打开，或调用本身失败
+     */
+    public <T> T execute(Supplier<T> call) {
+        if (!tryAcquire()) {
+            rejected.increment();
+            throw new RedisUnavailableException("redis熔断中，暂停访问");
+        }
+        long begin = System.nanoTime();
+        T result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            onFailure();
+            throw new RedisUnavailableException("redis访问失败：" + e.getMessage(), e);
+        }
+        onSuccess(System.nanoTime() - begin);
+        return result;
+    }
+
+    public void run(Runnable call) {
+        execute(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * 异步调用：熔断打开时返回异常结束的future，调用结果在完成时计入统计
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> call) {
+        if (!tryAcquire()) {
+            rejected.increment();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new RedisUnavailableException("redis熔断中，暂停访问"));
+            return future;
+        }
+        long begin = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<T> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            onFailure();
+            result.completeExceptionally(new RedisUnavailableException("redis访问失败：" + e.getMessage(), e));
+            return result;
+        }
+        started.whenComplete((value, e) -> {
+            if (e == null) {
+                onSuccess(System.nanoTime() - begin);
+                result.complete(value);
+            } else {
+                onFailure();
+                result.completeExceptionally(new RedisUnavailableException("redis访问失败：" + e.getMessage(), e));
+            }
+        });
+        return result;
+    }
+
+    public State state() {
+        //打开状态到期后，下一次访问才会真正切到半开，这里按到期后的状态展示
+        if (state == State.OPEN && clock.getAsLong() - stateSince >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public boolean isOpen() {
+        return state() == State.OPEN;
+    }
+
+    //是否放行本次调用
+    private boolean tryAcquire() {
+        if (!enabled) {
+            return true;
+        }
+        State current = state;
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN) {
+            if (clock.getAsLong() - stateSince < openMillis) {
+                return false;
+            }
+            transition(State.OPEN, State.HALF_OPEN);
+        }
+        //半开：只放行有限次数的试探调用
+        return state == State.HALF_OPEN && halfOpenPermits.incrementAndGet() <= halfOpenCalls;
+    }
+
+    private void onSuccess(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        if (nanos > slowCallNanos) {
+            //慢调用按失败处理，redis卡顿时同样要熔断
+            slow.increment();
+            onFailure();
+            return;
+        }
+        State current = state;
+        if (current == State.HALF_OPEN) {
+            if (halfOpenSuccesses.incrementAndGet() >= halfOpenCalls) {
+                transition(State.HALF_OPEN, State.CLOSED);
+            }
+            return;
+        }
+        record(false);
+    }
+
+    private void onFailure() {
+        failed.increment();
+        if (!enabled) {
+            return;
+        }
+        State current = state;
+        if (current == State.HALF_OPEN) {
+            transition(State.HALF_OPEN, State.OPEN);
+            return;
+        }
+        if (current == State.CLOSED && record(true)) {
+            transition(State.CLOSED, State.OPEN);
+        }
+    }
+
+    //计入当前秒的桶，失败时返回窗口内失败率是否超过阈值
+    private boolean record(boolean failure) {
+        long epoch = clock.getAsLong() / 1000;
+        int idx = (int) (epoch % buckets);
+        if (epochs.get(idx) != epoch) {
+            synchronized (epochs) {
+                if (epochs.get(idx) != epoch) {
+                    calls.set(idx, 0);
+                    failures.set(idx, 0);
+                    epochs.set(idx, epoch);
+                }
+            }
+        }
+        calls.incrementAndGet(idx);
+        if (!failure) {
+            return false;
+        }
+        failures.incrementAndGet(idx);
+        long total = 0;
+        long failed = 0;
+        for (int i = 0; i < buckets; i++) {
+            if (epochs.get(i) > epoch - buckets) {
+                total += calls.get(i);
+                failed += failures.get(i);
+            }
+        }
+        return total >= minimumCalls && failed >= total * failureRate;
+    }
+
+    private synchronized void transition(State from, State to) {
+        if (state != from) {
+            return;
+        }
+        state = to;
+        stateSince = clock.getAsLong();
+        halfOpenPermits.set(0);
+        halfOpenSuccesses.set(0);
+        if (to == State.CLOSED) {
+            //恢复后重新开始统计，打开之前的失败不再计入
+            for (int i = 0; i < buckets; i++) {
+                epochs.set(i, 0);
+                calls.set(i, 0);
+                failures.set(i, 0);
+            }
+        }
+        transitions.computeIfAbsent(from + "->" + to, k -> new LongAdder()).increment();
+        if (to == State.OPEN) {
+            log.warn("redis熔断器打开，{}ms内不再访问redis", openMillis);
+        } else {
+            log.info("redis熔断器状态切换 {} -> {}", from, to);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("state", state().name());
+        stats.put("stateSince", stateSince);
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        stats.put("slow", slow.sum());
+        Map<String, Long> counts = new TreeMap<>();
+        transitions.forEach((transition, count) -> counts.put(transition, count.sum()));
+        stats.put("transitions", counts);
+        return stats;
+    }
+}
@@ -10,10 +10,47 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    // 本地缓存失效广播频道，消息体为被删除的缓存key
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    // 删除失败的缓存key重试队列（ZSET，score为下次重试时间）
+    public static final String CACHE_INVALIDATE_RETRY_KEY = "cache:invalidate:retry";
+
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    // 缓存重建锁前缀，后面拼完整的缓存key，例如 lock:cache:shop:1
+    public static final String CACHE_LOCK_KEY = "lock:";
+    // 缓存版本号前缀，后面拼用hash tag括起来的完整缓存key，例如 ver:{cache:shop:1}，集群中和缓存key在同一个slot
+    public static final String CACHE_VERSION_KEY = "ver:";
+    // 缓存一致性巡检的进度（HASH：cursor 当前SCAN游标，nextPassAt 下一轮开始时间）
+    public static final String CACHE_AUDIT_KEY = "cache:audit";
+    // 缓存一致性巡检的锁名，SimpleRedisLock会加上 lock: 前缀，同一时刻只有一个节点在巡检
+    public static final String CACHE_AUDIT_LOCK = "cache:audit";
+    // redis不可用时降级查库的合并标识前缀，只在本机SingleFlight中使用，不写入redis
+    public static final String CACHE_DEGRADE_FLIGHT = "degrade:";
+    // 后台重建的合并标识前缀，只在本机SingleFlight中使用；重建的结果是Void，不能和返回数据的加载共用同一个标识
+    public static final String CACHE_REBUILD_FLIGHT = "rebuild:";
+    // 同步API查库加载的合并标识前缀，只在本机SingleFlight中使用
+    public static final String CACHE_LOAD_FLIGHT = "load:";
+    // 异步API查库加载的合并标识前缀，和同步加载分开，同步调用不会阻塞在异步加载线程池的任务上
+    public static final String CACHE_ASYNC_FLIGHT = "async:";
 
+    // 秒杀key前缀，完整的key由 SeckillKeys 按分片加上hash tag生成
+    public static final String SECKILL_KEY_PREFIX = "seckill:";
+    // 秒杀订单流的消费者组
+    public static final String SECKILL_ORDER_GROUP = "g1";
+    // 秒杀订单消费者实例的心跳，zset：实例名 -> 最后心跳时间
+    public static final String SECKILL_CONSUMERS_KEY = "seckill:consumers";
+    // 秒杀订单死信流：redis已扣库存但数据库库存不足、无法创建的订单，转存到这里等待人工处理
+    public static final String SECKILL_DEAD_ORDERS_KEY = "seckill:orders:dead";
+    // 秒杀券售罄、补库存的广播频道
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldOut";
+    // 旧版不分片的秒杀key，只用于迁移：库存、已购用户、订单流
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_LEGACY_STREAM = "stream.orders";
+    // 旧订单流的迁移进度，HASH：stream 最后一条已复制消息的id，中断后重新迁移时从这里续传
+    public static final String SECKILL_MIGRATION_KEY = "seckill:migration";
+    public static final String FOLLOWS_KEY = "follows:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -22,6 +59,12 @@ public class RedisConstants {
 
     public static final String CACHE_SHOP_TYPE_LIST_KEY = "cache:shopType:";
     public static final Long CACHE_SHOP_TYPE_TTL = 30L; // 30分钟
+    // 店铺的优惠券列表，秒杀库存不跟着缓存，查询时从redis读最新值合并进去
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
+    public static final Long CACHE_SHOP_VOUCHER_TTL = 30L;
+
+    // 布隆过滤器新增id广播频道，消息体为 过滤器名:id
+    public static final String BLOOM_FILTER_ADD_CHANNEL = "bloom:add";
 
     // 通用缓存设置
     public static final Long CACHE_NULL_TTL = 2L; // 空值缓存2分钟（防穿透）
@@ -12,4 +12,8 @@ public class RedisData{
      * 缓存工具类可以存储任意类型的对象，方便操作
      */
     private Object data;
+    /**
+     * 上次重建这条数据花费的时间（毫秒），用于提前刷新的概率计算，0表示未记录
+     */
+    private long delta;
 }
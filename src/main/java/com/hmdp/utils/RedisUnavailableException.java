@@ -0,0 +1,16 @@
+package com.hmdp.utils;
+
+/**
+ * redis不可用：熔断器打开，或者访问redis失败
+ * 能降级的调用方（CacheClient、LoginInterceptor）捕获后降级，其余由 WebExceptionAdvice 统一返回"服务繁忙"
+ */
+public class RedisUnavailableException extends RuntimeException {
+
+    public RedisUnavailableException(String message) {
+        super(message);
+    }
+
+    public RedisUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
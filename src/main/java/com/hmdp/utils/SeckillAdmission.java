@@ -0,0 +1,279 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀准入：在执行秒杀脚本、生成订单id之前按令牌桶限流
+ * 1.本机预过滤：每个券一个本机令牌桶，速率和容量为全局的 1/实例数，redis刚拒绝过时在提示的等待时间内直接拒绝，都不访问redis
+ *   实例数默认取秒杀消费者心跳中的存活实例数，有只接收请求、不消费订单流的实例时用 local-instances 指定
+ * 2.全局判断：券的令牌桶，加上可选的用户、IP令牌桶，由一个Lua脚本原子地判断和扣减
+ *   分段券的桶按段拆开，用户落在所属段的桶上，速率和容量按段数平分，限流不会集中到一个分片
+ * 3.指标：按券统计放行、本机拒绝、redis拒绝的次数，以及最近10秒的放行QPS和拒绝率
+ * redis不可用时放行（fail open），只靠本机预过滤：各实例的本机桶合起来不超过全局速率，
+ * 而且之后的秒杀脚本同样依赖redis，会失败并由统一的异常处理返回，放行不会造成超卖，只是多一次失败的脚本调用
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final DefaultRedisScript<List> ADMISSION_SCRIPT;
+    static {
+        ADMISSION_SCRIPT = new DefaultRedisScript<>();
+        ADMISSION_SCRIPT.setLocation(new ClassPathResource("seckill_admission.lua"));
+        ADMISSION_SCRIPT.setResultType(List.class);
+    }
+
+    //本机最多记录的券数，超过后新券只走redis判断
+    private static final int MAX_VOUCHERS = 10000;
+
+    private final boolean enabled;
+    private final double voucherQps;
+    private final double voucherBurst;
+    private final double userQps;
+    private final double userBurst;
+    private final double ipQps;
+    private final double ipBurst;
+    //本机桶按多少个实例平分全局速率，0表示按心跳中的存活实例数
+    private final int localInstances;
+    private final ConcurrentHashMap<Long, VoucherAdmission> vouchers = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillKeys seckillKeys;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillConsumerGroup seckillConsumerGroup;
+
+    public SeckillAdmission(@Value("${hmdp.seckill.admission.enabled:true}") boolean enabled,
+                            @Value("${hmdp.seckill.admission.voucher-qps:2000}") double voucherQps,
+                            @Value("${hmdp.seckill.admission.voucher-burst:2000}") double voucherBurst,
+                            @Value("${hmdp.seckill.admission.user-qps:0}") double userQps,
+                            @Value("${hmdp.seckill.admission.user-burst:1}") double userBurst,
+                            @Value("${hmdp.seckill.admission.ip-qps:0}") double ipQps,
+                            @Value("${hmdp.seckill.admission.ip-burst:10}") double ipBurst,
+                            @Value("${hmdp.seckill.admission.local-instances:0}") int localInstances) {
+        if (enabled && voucherQps <= 0) {
+            throw new IllegalArgumentException("秒杀准入的voucher-qps必须大于0");
+        }
+        this.enabled = enabled;
+        this.voucherQps = voucherQps;
+        this.voucherBurst = Math.max(1, voucherBurst);
+        this.userQps = userQps;
+        this.userBurst = Math.max(1, userBurst);
+        this.ipQps = ipQps;
+        this.ipBurst = Math.max(1, ipBurst);
+        this.localInstances = Math.max(0, localInstances);
+    }
+
+    /**
+     * 判断是否放行一次抢购请求
+     * @param userId 用户id，开启了用户限流时使用
+     * @param ip 客户端IP，开启了IP限流时使用
+     * @return 0表示放行，否则为建议的重试等待毫秒数
+     */
+    public long tryAdmit(Long voucherId, Long userId, String ip) {
+        if (!enabled) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        VoucherAdmission admission = admissionOf(voucherId, now);
+        //1.本机预过滤
+        if (admission != null) {
+            long wait = admission.blockedUntil - now;
+            if (wait <= 0) {
+                wait = admission.local.tryAcquire(now);
+            }
+            if (wait > 0) {
+                admission.reject(now, true);
+                return wait;
+            }
+        }
+        //2.redis中的券、用户、IP令牌桶一起判断
+        try {
+            long wait = admitGlobally(voucherId, userId, ip, admission);
+            if (wait > 0) {
+                if (admission != null) {
+                    admission.reject(now, false);
+                }
+                return wait;
+            }
+        } catch (Exception e) {
+            //fail open：本机桶已经限制在本实例分到的速率内，redis不可用时秒杀脚本也会失败，不会超卖
+            log.warn("秒杀准入判断失败，按本机预过滤的结果放行，voucherId:{}", voucherId, e);
+        }
+        if (admission != null) {
+            admission.admit(now);
+        }
+        return 0;
+    }
+
+    private long admitGlobally(Long voucherId, Long userId, String ip, VoucherAdmission admission) {
+        int segments = seckillStock.segments(voucherId);
+        int segment = segments == 1 || userId == null ? 0 : SeckillStock.homeSegment(userId, segments);
+        List<String> keys = new ArrayList<>(3);
+        List<String> args = new ArrayList<>(6);
+        keys.add(seckillKeys.admissionKey(voucherId, segments, segment));
+        args.add(String.valueOf(voucherQps / segments));
+        args.add(String.valueOf(Math.max(1, voucherBurst / segments)));
+        if (userQps > 0 && userId != null) {
+            keys.add(seckillKeys.admissionKey(voucherId, segments, segment, "user", userId.toString()));
+            args.add(String.valueOf(userQps));
+            args.add(String.valueOf(userBurst));
+        }
+        if (ipQps > 0 && ip != null) {
+            keys.add(seckillKeys.admissionKey(voucherId, segments, segment, "ip", ip));
+            args.add(String.valueOf(ipQps));
+            args.add(String.valueOf(ipBurst));
+        }
+        List<?> result = stringRedisTemplate.execute(ADMISSION_SCRIPT, keys, args.toArray());
+        if (result == null || result.isEmpty()) {
+            return 0;
+        }
+        long wait = ((Number) result.get(0)).longValue();
+        //券的桶没有令牌时，本机在等待时间内直接拒绝；用户、IP的桶只影响这一个用户
+        if (wait > 0 && admission != null && ((Number) result.get(1)).intValue() == 1) {
+            admission.blockedUntil = System.currentTimeMillis() + wait;
+        }
+        return wait;
+    }
+
+    private VoucherAdmission admissionOf(Long voucherId, long now) {
+        int instances = instances();
+        VoucherAdmission admission = vouchers.get(voucherId);
+        if (admission == null) {
+            if (vouchers.size() >= MAX_VOUCHERS) {
+                return null;
+            }
+            return vouchers.computeIfAbsent(voucherId, id -> new VoucherAdmission(localBucket(instances, now), instances));
+        }
+        //实例数变化后按新的份额重建本机桶
+        if (admission.instances != instances) {
+            admission.resize(localBucket(instances, now), instances);
+        }
+        return admission;
+    }
+
+    private int instances() {
+        if (localInstances > 0) {
+            return localInstances;
+        }
+        //不消费订单流时没有心跳，成员数为0
+        return Math.max(1, seckillConsumerGroup.members());
+    }
+
+    private TokenBucket localBucket(int instances, long now) {
+        return new TokenBucket(voucherQps / instances, Math.max(1, voucherBurst / instances), now);
+    }
+
+    public Map<String, Object> stats() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("voucherQps", voucherQps);
+        stats.put("userQps", userQps);
+        stats.put("ipQps", ipQps);
+        stats.put("instances", instances());
+        Map<String, Object> byVoucher = new TreeMap<>();
+        vouchers.forEach((voucherId, admission) -> byVoucher.put(String.valueOf(voucherId), admission.snapshot(now)));
+        stats.put("vouchers", byVoucher);
+        return stats;
+    }
+
+    private static class VoucherAdmission {
+        private volatile TokenBucket local;
+        //本机桶按多少个实例平分
+        private volatile int instances;
+        //redis拒绝后，本机在这个时间之前直接拒绝
+        private volatile long blockedUntil;
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejectedLocal = new LongAdder();
+        private final LongAdder rejectedRedis = new LongAdder();
+        private final RateWindow admittedWindow = new RateWindow();
+        private final RateWindow rejectedWindow = new RateWindow();
+
+        private VoucherAdmission(TokenBucket local, int instances) {
+            this.local = local;
+            this.instances = instances;
+        }
+
+        private void resize(TokenBucket local, int instances) {
+            this.local = local;
+            this.instances = instances;
+        }
+
+        private void admit(long now) {
+            admitted.increment();
+            admittedWindow.add(now);
+        }
+
+        private void reject(long now, boolean local) {
+            (local ? rejectedLocal : rejectedRedis).increment();
+            rejectedWindow.add(now);
+        }
+
+        private Map<String, Object> snapshot(long now) {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("admitted", admitted.sum());
+            snapshot.put("rejectedLocal", rejectedLocal.sum());
+            snapshot.put("rejectedRedis", rejectedRedis.sum());
+            long recentAdmitted = admittedWindow.sum(now);
+            long recentRejected = rejectedWindow.sum(now);
+            snapshot.put("admittedQps", (double) recentAdmitted / RateWindow.SECONDS);
+            snapshot.put("rejectionRate", recentAdmitted + recentRejected == 0 ? 0D
+                    : (double) recentRejected / (recentAdmitted + recentRejected));
+            return snapshot;
+        }
+    }
+
+    /**
+     * 最近10秒的计数，每秒一个桶，不含当前这一秒
+     */
+    static class RateWindow {
+        static final int SECONDS = 10;
+        //多一个桶放当前这一秒
+        private static final int SLOTS = SECONDS + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+        private final AtomicLongArray epochs = new AtomicLongArray(SLOTS);
+
+        void add(long nowMillis) {
+            long second = nowMillis / 1000;
+            int slot = (int) (second % SLOTS);
+            long epoch = epochs.get(slot);
+            if (epoch != second && epochs.compareAndSet(slot, epoch, second)) {
+                //这个桶上一次用于更早的一秒，清零后重新计数；并发下个别计数可能落到旧的一秒，可以接受
+                counts.set(slot, 0);
+            }
+            counts.incrementAndGet(slot);
+        }
+
+        long sum(long nowMillis) {
+            long second = nowMillis / 1000;
+            long sum = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                long epoch = epochs.get(slot);
+                if (epoch < second && epoch >= second - SECONDS) {
+                    sum += counts.get(slot);
+                }
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_CONSUMERS_KEY;
+
+/**
+ * 秒杀订单消费者的成员管理与分片分配
+ * 1.每个实例定时把自己的名字和心跳时间写入zset，超过超时时间没有心跳的实例被移除
+ * 2.存活实例按名字排序，分片 s 分给第 s % 实例数 个实例；实例加入或退出后，下一次心跳时重新分配
+ * 分配只决定谁去争抢某个分片，同一时刻只有持有分片锁的worker消费该分片，见 VoucherOrderServiceImpl
+ * 心跳使用独立的线程，不和其它 @Scheduled 任务（布隆过滤器重建、预热等）排队，避免长任务拖过超时导致分片反复易主
+ */
+@Slf4j
+@Component
+public class SeckillConsumerGroup {
+
+    private final boolean enabled;
+    private final String instanceName;
+    private final long memberTimeoutMillis;
+    private final long heartbeatMillis;
+    private final ScheduledExecutorService heartbeatExecutor;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    private volatile List<Integer> ownedShards = Collections.emptyList();
+    private volatile int members;
+
+    public SeckillConsumerGroup(@Value("${hmdp.seckill.consumer.enabled:true}") boolean enabled,
+                                @Value("${hmdp.seckill.consumer.name:}") String name,
+                                @Value("${hmdp.seckill.consumer.member-timeout-ms:10000}") long memberTimeoutMillis,
+                                @Value("${hmdp.seckill.consumer.heartbeat-ms:3000}") long heartbeatMillis) {
+        if (enabled && heartbeatMillis >= memberTimeoutMillis) {
+            throw new IllegalArgumentException("秒杀消费者的heartbeat-ms必须小于member-timeout-ms");
+        }
+        this.enabled = enabled;
+        //默认用 主机名:进程号，保证同一台机器上的多个实例名字也不同
+        this.instanceName = StrUtil.isNotBlank(name) ? name : defaultName();
+        this.memberTimeoutMillis = memberTimeoutMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "seckill-consumer-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PostConstruct
+    public void start() {
+        //不消费订单流的实例不参与分配
+        if (enabled) {
+            heartbeatExecutor.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 本实例的名字，worker的消费者名在后面加上序号
+     */
+    public String instanceName() {
+        return instanceName;
+    }
+
+    /**
+     * 当前分配给本实例的分片
+     */
+    public List<Integer> ownedShards() {
+        return ownedShards;
+    }
+
+    /**
+     * 上次心跳时看到的存活实例数
+     */
+    public int members() {
+        return members;
+    }
+
+    public void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            //1.写入心跳，移除超时的实例
+            stringRedisTemplate.opsForZSet().add(SECKILL_CONSUMERS_KEY, instanceName, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(SECKILL_CONSUMERS_KEY, 0, now - memberTimeoutMillis);
+            //2.按存活实例重新分配分片
+            Set<String> alive = stringRedisTemplate.opsForZSet().range(SECKILL_CONSUMERS_KEY, 0, -1);
+            List<String> names = alive == null ? Collections.emptyList() : new ArrayList<>(alive);
+            List<Integer> shards = assign(names, seckillKeys.shards(), instanceName);
+            if (!shards.equals(ownedShards)) {
+                log.info("秒杀订单分片重新分配，实例:{}，存活实例数:{}，分片:{}", instanceName, names.size(), shards);
+            }
+            members = names.size();
+            ownedShards = shards;
+        } catch (Exception e) {
+            //redis不可用时保持原来的分配，消费者自己也会因为读不到消息而空转
+            log.warn("秒杀消费者心跳失败，实例:{}", instanceName, e);
+        }
+    }
+
+    @PreDestroy
+    public void leave() {
+        heartbeatExecutor.shutdownNow();
+        ownedShards = Collections.emptyList();
+        try {
+            stringRedisTemplate.opsForZSet().remove(SECKILL_CONSUMERS_KEY, instanceName);
+        } catch (Exception e) {
+            log.warn("秒杀消费者退出登记失败，实例:{}", instanceName, e);
+        }
+    }
+
+    /**
+     * 按名字排序后，分片 s 分给第 s % 实例数 个实例
+     * @return 分给me的分片，me不在存活列表中时为空
+     */
+    static List<Integer> assign(List<String> members, int shards, String me) {
+        List<String> sorted = new ArrayList<>(members);
+        Collections.sort(sorted);
+        int index = sorted.indexOf(me);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> owned = new ArrayList<>();
+        for (int shard = index; shard < shards; shard += sorted.size()) {
+            owned.add(shard);
+        }
+        return Collections.unmodifiableList(owned);
+    }
+
+    private static String defaultName() {
+        //RuntimeMXBean的名字形如 进程号@主机名
+        String[] parts = ManagementFactory.getRuntimeMXBean().getName().split("@", 2);
+        return parts.length == 2 ? parts[1] + ":" + parts[0] : parts[0];
+    }
+}
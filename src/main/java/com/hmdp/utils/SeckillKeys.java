@@ -0,0 +1,140 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_KEY_PREFIX;
+
+/**
+ * 秒杀相关的key，按优惠券id分片并加上hash tag：
+ * 库存 seckill:{分片}:stock:券id，已购用户 seckill:{分片}:order:券id，时间窗口 seckill:{分片}:window:券id，
+ * 订单流 seckill:{分片}:orders，消费锁 seckill:{分片}:consumer
+ * 分段库存的券每段一组key：库存、已购用户、时间窗口的key后面加上 :段号，各段放在相邻的分片上
+ * 同一分片的key在Redis Cluster中落在同一个slot，秒杀脚本可以原子地操作它们；不同分片分散到不同节点
+ * 分片数决定了key名，上线后不能随意修改，修改后需要重新执行迁移
+ */
+@Component
+public class SeckillKeys {
+
+    private final int shards;
+
+    public SeckillKeys(@Value("${hmdp.seckill.shards:16}") int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("秒杀分片数必须大于0：" + shards);
+        }
+        this.shards = shards;
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public int shardOf(long voucherId) {
+        return (int) Math.floorMod(voucherId, (long) shards);
+    }
+
+    public String stockKey(long voucherId) {
+        return tag(shardOf(voucherId)) + "stock:" + voucherId;
+    }
+
+    public String orderKey(long voucherId) {
+        return tag(shardOf(voucherId)) + "order:" + voucherId;
+    }
+
+    public String windowKey(long voucherId) {
+        return tag(shardOf(voucherId)) + "window:" + voucherId;
+    }
+
+    public String streamKey(long voucherId) {
+        return streamKeyOfShard(shardOf(voucherId));
+    }
+
+    public String streamKeyOfShard(int shard) {
+        return tag(shard) + "orders";
+    }
+
+    /**
+     * 分段库存的第 segment 段所在的分片：各段依次放在相邻的分片上，分段数不超过分片数时各段的slot都不同
+     */
+    public int segmentShardOf(long voucherId, int segment) {
+        return (int) Math.floorMod(voucherId + segment, (long) shards);
+    }
+
+    public String segmentStockKey(long voucherId, int segment) {
+        return tag(segmentShardOf(voucherId, segment)) + "stock:" + voucherId + ":" + segment;
+    }
+
+    public String segmentOrderKey(long voucherId, int segment) {
+        return tag(segmentShardOf(voucherId, segment)) + "order:" + voucherId + ":" + segment;
+    }
+
+    public String segmentWindowKey(long voucherId, int segment) {
+        return tag(segmentShardOf(voucherId, segment)) + "window:" + voucherId + ":" + segment;
+    }
+
+    public String segmentStreamKey(long voucherId, int segment) {
+        return streamKeyOfShard(segmentShardOf(voucherId, segment));
+    }
+
+    /**
+     * 准入令牌桶，分段券每段一个桶，和该段的库存在同一个分片
+     */
+    public String admissionKey(long voucherId, int segments, int segment) {
+        return segments == 1 ? tag(shardOf(voucherId)) + "limit:" + voucherId
+                : tag(segmentShardOf(voucherId, segment)) + "limit:" + voucherId + ":" + segment;
+    }
+
+    /**
+     * 用户或IP的准入令牌桶，和券的桶使用同一个hash tag，准入脚本可以一起判断
+     * @param type user 或 ip
+     */
+    public String admissionKey(long voucherId, int segments, int segment, String type, String id) {
+        return admissionKey(voucherId, segments, segment) + ":" + type + ":" + id;
+    }
+
+    /**
+     * 券的库存分段数，不带hash tag
+     */
+    public String segmentsKey(long voucherId) {
+        return SECKILL_KEY_PREFIX + "segments:" + voucherId;
+    }
+
+    /**
+     * 预热标记，多个节点同时预热时只有一个生效
+     */
+    public String warmedKey(long voucherId) {
+        return SECKILL_KEY_PREFIX + "warmed:" + voucherId;
+    }
+
+    /**
+     * 秒杀结束后的归档
+     */
+    public String archiveKey(long voucherId) {
+        return SECKILL_KEY_PREFIX + "archive:" + voucherId;
+    }
+
+    /**
+     * 分片消费锁，持有锁的worker才能消费该分片的订单流
+     */
+    public String consumerLockKey(int shard) {
+        return tag(shard) + "consumer";
+    }
+
+    /**
+     * 所有分片的订单流
+     */
+    public List<String> streamKeys() {
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(streamKeyOfShard(i));
+        }
+        return keys;
+    }
+
+    private static String tag(int shard) {
+        return SECKILL_KEY_PREFIX + "{" + shard + "}:";
+    }
+}
@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本机的秒杀券售罄标记：售罄之后的抢购请求直接拒绝，不再生成订单id、执行秒杀脚本
+ * 1.秒杀脚本返回库存不足时标记，并通过redis发布订阅通知其它节点
+ * 2.新增秒杀券、补充库存后清除标记，同样广播到所有节点
+ * 3.标记带有效期：发布订阅不保证送达，补库存和脚本返回库存不足同时发生时标记也可能晚于清除到达，
+ *   过期后下一个请求重新执行脚本确认，每个节点每个券每个有效期内最多多访问一次redis
+ */
+@Slf4j
+@Component
+public class SeckillSoldOutMarker {
+
+    private static final String SOLD_OUT = "soldOut:";
+    private static final String RESTOCK = "restock:";
+
+    private final long ttlMillis;
+    //券id -> 标记的过期时间
+    private final ConcurrentHashMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+
+    public SeckillSoldOutMarker(@Value("${hmdp.seckill.sold-out.ttl-ms:5000}") long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    @PostConstruct
+    private void subscribe() {
+        //其它节点标记售罄或补充了库存，同步到本机
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.startsWith(SOLD_OUT)) {
+                markLocal(Long.valueOf(body.substring(SOLD_OUT.length())));
+            } else if (body.startsWith(RESTOCK)) {
+                soldOut.remove(Long.valueOf(body.substring(RESTOCK.length())));
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 本机是否已知该券售罄，不访问redis
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt <= System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄并通知其它节点；本机已有标记时只刷新有效期，不重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        if (markLocal(voucherId)) {
+            publish(SOLD_OUT + voucherId);
+        }
+    }
+
+    /**
+     * 清除所有节点上的售罄标记
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        publish(RESTOCK + voucherId);
+    }
+
+    //返回之前是否没有有效的标记
+    private boolean markLocal(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long previous = soldOut.put(voucherId, now + ttlMillis);
+        return previous == null || previous <= now;
+    }
+
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, message);
+        } catch (Exception e) {
+            //广播失败只影响其它节点，它们会继续执行秒杀脚本得到同样的结果
+            log.warn("售罄标记广播失败：{}", message, e);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀库存在redis中的布局
+ * 1.普通券：一个库存key、一个已购用户集合，所有请求落在同一个分片
+ * 2.分段券：库存平均拆到K段，每段一个库存key和已购用户集合，放在K个相邻的分片上；
+ *   用户按id哈希固定落在一个段（所属段），是否重复下单只看所属段的集合，全局仍是一人一单；
+ *   所属段库存不足时依次向后面的段借库存
+ * 分段数在创建秒杀券时确定，之后不再改变，写在 seckill:segments:券id 中，各节点读到后缓存在本地
+ * 时间窗口（开始毫秒:结束毫秒）和库存放在同一个slot，秒杀脚本按redis服务器时间检查
+ */
+@Component
+public class SeckillStock {
+
+    private final int defaultSegments;
+    //已确定的分段数不会再变，长时间缓存
+    private final LocalCache segmentsCache = new LocalCache(10000, TimeUnit.MINUTES.toMillis(10));
+    //没有分段数记录的券（旧数据或不存在的券）按普通券处理，只短暂缓存，券创建后很快能读到真实的分段数
+    private final LocalCache absentCache = new LocalCache(10000, TimeUnit.SECONDS.toMillis(1));
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillKeys seckillKeys;
+
+    public SeckillStock(@Value("${hmdp.seckill.segments.default:1}") int defaultSegments) {
+        this.defaultSegments = defaultSegments;
+    }
+
+    /**
+     * 写入新秒杀券的库存，不限制秒杀时间
+     */
+    public int init(Long voucherId, int stock, Integer segments) {
+        return init(voucherId, stock, segments, null, null);
+    }
+
+    /**
+     * 写入秒杀券的库存和时间窗口
+     * @param segments 分段数，null时使用默认值，最多为分片数
+     * @param beginTime 开始时间，和结束时间都不为空时秒杀脚本检查时间窗口
+     * @return 实际的分段数
+     */
+    public int init(Long voucherId, int stock, Integer segments, LocalDateTime beginTime, LocalDateTime endTime) {
+        int k = Math.min(Math.max(1, segments == null ? defaultSegments : segments), seckillKeys.shards());
+        String window = beginTime == null || endTime == null ? null : toMillis(beginTime) + ":" + toMillis(endTime);
+        if (k == 1) {
+            stringRedisTemplate.opsForValue().set(seckillKeys.stockKey(voucherId), String.valueOf(stock));
+            setWindow(seckillKeys.windowKey(voucherId), window);
+        } else {
+            int[] parts = split(stock, k);
+            for (int i = 0; i < k; i++) {
+                stringRedisTemplate.opsForValue().set(seckillKeys.segmentStockKey(voucherId, i), String.valueOf(parts[i]));
+                setWindow(seckillKeys.segmentWindowKey(voucherId, i), window);
+            }
+        }
+        //库存写好之后再写分段数，其它节点读到分段数时各段库存已经就绪
+        stringRedisTemplate.opsForValue().set(seckillKeys.segmentsKey(voucherId), String.valueOf(k));
+        segmentsCache.put(String.valueOf(voucherId), k);
+        absentCache.invalidate(String.valueOf(voucherId));
+        return k;
+    }
+
+    /**
+     * 开抢前重新加载：清空已购用户，按数据库的库存和时间重新写入，分段数保持不变
+     */
+    public int reset(Long voucherId, int stock, LocalDateTime beginTime, LocalDateTime endTime) {
+        Integer segments = hasSegments(voucherId) ? segments(voucherId) : null;
+        stringRedisTemplate.delete(orderKeys(voucherId, segments == null ? 1 : segments));
+        return init(voucherId, stock, segments, beginTime, endTime);
+    }
+
+    /**
+     * 秒杀结束后归档：剩余库存、已购人数写入 seckill:archive:券id，删除库存和已购用户
+     * 时间窗口和分段数保留到归档过期，之后的请求仍返回已结束
+     * @return 归档内容，已被其它节点归档时返回null
+     */
+    public Map<String, String> archive(Long voucherId, long ttlMillis) {
+        String archiveKey = seckillKeys.archiveKey(voucherId);
+        //多个节点同时归档时只有一个继续
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(archiveKey, "archivedAt",
+                String.valueOf(System.currentTimeMillis())))) {
+            return null;
+        }
+        int k = segments(voucherId);
+        List<String> stockKeys = new ArrayList<>(k);
+        List<String> windowKeys = new ArrayList<>(k);
+        if (k == 1) {
+            stockKeys.add(seckillKeys.stockKey(voucherId));
+            windowKeys.add(seckillKeys.windowKey(voucherId));
+        } else {
+            for (int i = 0; i < k; i++) {
+                stockKeys.add(seckillKeys.segmentStockKey(voucherId, i));
+                windowKeys.add(seckillKeys.segmentWindowKey(voucherId, i));
+            }
+        }
+        List<String> orderKeys = orderKeys(voucherId, k);
+        long stock = 0;
+        for (String stockKey : stockKeys) {
+            String value = stringRedisTemplate.opsForValue().get(stockKey);
+            stock += value == null ? 0 : Long.parseLong(value);
+        }
+        long buyers = 0;
+        for (String orderKey : orderKeys) {
+            Long size = stringRedisTemplate.opsForSet().size(orderKey);
+            buyers += size == null ? 0 : size;
+        }
+        Map<String, String> archive = new LinkedHashMap<>();
+        archive.put("segments", String.valueOf(k));
+        archive.put("stock", String.valueOf(stock));
+        archive.put("buyers", String.valueOf(buyers));
+        stringRedisTemplate.opsForHash().putAll(archiveKey, archive);
+        stringRedisTemplate.expire(archiveKey, ttlMillis, TimeUnit.MILLISECONDS);
+        stringRedisTemplate.delete(stockKeys);
+        stringRedisTemplate.delete(orderKeys);
+        //分段数和时间窗口一起保留，各节点仍按原来的分段找到窗口
+        stringRedisTemplate.expire(seckillKeys.segmentsKey(voucherId), ttlMillis, TimeUnit.MILLISECONDS);
+        for (String windowKey : windowKeys) {
+            stringRedisTemplate.expire(windowKey, ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        return archive;
+    }
+
+    /**
+     * 增加库存，分段券平均加到各段
+     */
+    public void add(Long voucherId, int count) {
+        int k = segments(voucherId);
+        if (k == 1) {
+            stringRedisTemplate.opsForValue().increment(seckillKeys.stockKey(voucherId), count);
+            return;
+        }
+        int[] parts = split(count, k);
+        for (int i = 0; i < k; i++) {
+            if (parts[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(seckillKeys.segmentStockKey(voucherId, i), parts[i]);
+            }
+        }
+    }
+
+    /**
+     * 剩余库存，分段券为各段之和
+     * @return redis中没有库存（未预热或已归档）时返回null
+     */
+    public Integer remaining(Long voucherId) {
+        int k = segments(voucherId);
+        List<String> stockKeys = new ArrayList<>(k);
+        if (k == 1) {
+            stockKeys.add(seckillKeys.stockKey(voucherId));
+        } else {
+            for (int i = 0; i < k; i++) {
+                stockKeys.add(seckillKeys.segmentStockKey(voucherId, i));
+            }
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        if (values == null) {
+            return null;
+        }
+        Integer remaining = null;
+        for (String value : values) {
+            if (value != null) {
+                remaining = (remaining == null ? 0 : remaining) + Integer.parseInt(value);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * 券的分段数，1表示普通券
+     */
+    public int segments(Long voucherId) {
+        String id = String.valueOf(voucherId);
+        Object cached = segmentsCache.get(id);
+        if (cached != null) {
+            return (Integer) cached;
+        }
+        if (absentCache.get(id) != null) {
+            return 1;
+        }
+        String raw = stringRedisTemplate.opsForValue().get(seckillKeys.segmentsKey(voucherId));
+        if (raw == null) {
+            absentCache.put(id, Boolean.TRUE);
+            return 1;
+        }
+        int k = Integer.parseInt(raw);
+        segmentsCache.put(id, k);
+        return k;
+    }
+
+    private boolean hasSegments(Long voucherId) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(seckillKeys.segmentsKey(voucherId)));
+    }
+
+    private List<String> orderKeys(Long voucherId, int segments) {
+        List<String> keys = new ArrayList<>(segments);
+        if (segments == 1) {
+            keys.add(seckillKeys.orderKey(voucherId));
+        } else {
+            for (int i = 0; i < segments; i++) {
+                keys.add(seckillKeys.segmentOrderKey(voucherId, i));
+            }
+        }
+        return keys;
+    }
+
+    private void setWindow(String windowKey, String window) {
+        if (window == null) {
+            stringRedisTemplate.delete(windowKey);
+        } else {
+            stringRedisTemplate.opsForValue().set(windowKey, window);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 用户所属的段
+     */
+    public static int homeSegment(Long userId, int segments) {
+        //打散连续的用户id，让各段的用户数均匀
+        long h = userId * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) segments);
+    }
+
+    /**
+     * 平均拆分，前 total % segments 段各多1个
+     */
+    static int[] split(int total, int segments) {
+        int[] parts = new int[segments];
+        for (int i = 0; i < segments; i++) {
+            parts[i] = total / segments + (i < total % segments ? 1 : 0);
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,102 @@
+package com.hmdp.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并：同一个key同时只有一个线程（leader）真正执行加载，
+ * 其它并发线程共享 leader 的 CompletableFuture，不再各自访问 Redis 锁和数据库
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder leaders = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 同步执行：leader 执行 loader，其它线程阻塞等待同一个结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return (T) join(existing);
+        }
+        leaders.increment();
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * 异步执行：没有进行中的任务时由当前线程启动一个，否则直接返回进行中的任务
+     * 调用方不需要等待结果时（例如逻辑过期的后台重建），可以忽略返回值
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Supplier<CompletableFuture<T>> starter) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            return (CompletableFuture<T>) (CompletableFuture<?>) existing;
+        }
+        leaders.increment();
+        try {
+            starter.get().whenComplete((value, e) -> {
+                calls.remove(key, future);
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(value);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        return (CompletableFuture<T>) (CompletableFuture<?>) future;
+    }
+
+    public boolean isInFlight(String key) {
+        return calls.containsKey(key);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("leaders", leaders.sum());
+        stats.put("coalesced", coalesced.sum());
+        stats.put("inFlight", calls.size());
+        return stats;
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+/**
+ * 本机令牌桶，用作redis令牌桶之前的预过滤：本机都放不过的请求不用再访问redis
+ */
+class TokenBucket {
+
+    //每毫秒补充的令牌数
+    private final double ratePerMillis;
+    private final double capacity;
+    private double tokens;
+    private long lastMillis;
+
+    TokenBucket(double qps, double capacity, long nowMillis) {
+        this.ratePerMillis = qps / 1000;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastMillis = nowMillis;
+    }
+
+    /**
+     * 取一个令牌
+     * @return 0表示取到了，否则为还需要等待的毫秒数
+     */
+    synchronized long tryAcquire(long nowMillis) {
+        if (nowMillis > lastMillis) {
+            tokens = Math.min(capacity, tokens + (nowMillis - lastMillis) * ratePerMillis);
+            lastMillis = nowMillis;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1L, (long) Math.ceil((1 - tokens) / ratePerMillis));
+    }
+}
@@ -0,0 +1,24 @@
+-- 带版本号写入缓存，缓存中已有更新的版本时拒绝覆盖
+-- KEYS[1] 缓存key，KEYS[2] 版本号key
+-- ARGV[1] 版本号，ARGV[2] 缓存值，ARGV[3] 过期毫秒数，0表示不过期（逻辑过期的数据）
+-- ARGV[4] 版本号key的过期毫秒数，不传或为0时与缓存相同；缓存不过期时也应传入，避免版本号key永久堆积
+local current = redis.call('GET', KEYS[2])
+if current and tonumber(current) > tonumber(ARGV[1]) then
+    return 0
+end
+local ttl = tonumber(ARGV[3])
+if ttl > 0 then
+    redis.call('SET', KEYS[1], ARGV[2], 'PX', ttl)
+else
+    redis.call('SET', KEYS[1], ARGV[2])
+end
+local versionTtl = tonumber(ARGV[4] or '0')
+if versionTtl == 0 then
+    versionTtl = ttl
+end
+if versionTtl > 0 then
+    redis.call('SET', KEYS[2], ARGV[1], 'PX', versionTtl)
+else
+    redis.call('SET', KEYS[2], ARGV[1])
+end
+return 1
@@ -1,4 +1,6 @@
 -- 1.参数列表
+-- KEYS[1] 库存key，KEYS[2] 已购用户集合key，KEYS[3] 订单流key，KEYS[4] 秒杀时间窗口key
+-- 四个key带有相同的hash tag（seckill:{分片}:...），在Redis Cluster中位于同一个slot，脚本才能原子执行
 -- 1.1 优惠券id
 local voucherId = ARGV[1]
 -- 1.2 用户id
@@ -7,15 +9,35 @@ local userId = ARGV[2]
 local orderId = ARGV[3]
 
 
--- 2.数据key
--- 2.1 库存key   key 是优惠的业务名称加优惠券id  value 是优惠券的库存数
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单key   key 也是拼接的业务名称加优惠权id  而value是用户id， 这是一个set集合，凡购买该优惠券的用户都会将其id存入集合中
-local orderKey = 'seckill:order:' .. voucherId
+-- 2.数据key，全部由调用方通过KEYS传入，脚本里不再拼接key
+-- 2.1 库存key   value 是优惠券的库存数
+local stockKey = KEYS[1]
+-- 2.2 订单key   这是一个set集合，凡购买该优惠券的用户都会将其id存入集合中
+local orderKey = KEYS[2]
+-- 2.3 订单流
+local streamKey = KEYS[3]
+-- 2.4 时间窗口  value 是 开始毫秒:结束毫秒，没有窗口时不限制时间
+local windowKey = KEYS[4]
 
 -- 3.脚本业务
--- 3.1 判断库存是否充足 get stockKey
-if (tonumber(redis.call('get', stockKey)) <= 0)  then  --将get的value先转为数字类型才能判断比较
+-- 3.0 判断是否在秒杀时间内，使用redis服务器的时间，各节点的时钟偏差不影响判断
+local window = redis.call('get', windowKey)
+if (window) then
+    local sep = string.find(window, ':')
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(string.sub(window, 1, sep - 1))) then
+        -- 尚未开始，返回4
+        return 4
+    end
+    if (now > tonumber(string.sub(window, sep + 1))) then
+        -- 已经结束，返回5
+        return 5
+    end
+end
+-- 3.1 判断库存是否充足 get stockKey，库存key不存在也按库存不足处理
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0)  then
     -- 3.2 库存不足，返回1
     return 1
 end
@@ -28,6 +50,6 @@ end
 redis.call('incrby', stockKey, -1)
 -- 3.6 下单（保存用户）
 redis.call('sadd', orderKey, userId)
---3.7发送消息到队列中
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+--3.7发送消息到所在分片的订单流中
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
 return 0
@@ -0,0 +1,35 @@
+-- 秒杀准入：多个令牌桶（券、用户、IP）一起判断，全部有令牌才放行并各扣一个，否则都不扣
+-- KEYS[i] 令牌桶，hash：tokens 剩余令牌数，ts 上次计算的毫秒时间；所有key带相同的hash tag
+-- ARGV[2i-1] 第i个桶每秒补充的令牌数，ARGV[2i] 第i个桶的容量
+-- 返回 {0, 0} 放行；{需要等待的毫秒数, 拒绝的桶序号} 拒绝
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 1.按经过的时间补充令牌，任何一个桶不足一个令牌就拒绝
+local tokens = {}
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    local bucket = redis.call('hmget', key, 'tokens', 'ts')
+    local left = tonumber(bucket[1])
+    local ts = tonumber(bucket[2])
+    if (left == nil or ts == nil) then
+        -- 新桶是满的
+        left = capacity
+        ts = now
+    end
+    left = math.min(capacity, left + math.max(0, now - ts) * rate / 1000)
+    if (left < 1) then
+        return {math.ceil((1 - left) * 1000 / rate), i}
+    end
+    tokens[i] = left
+end
+
+-- 2.全部通过，各扣一个令牌；桶在装满之后再过一会儿过期，不常访问的用户、IP的桶会自动清理
+for i, key in ipairs(KEYS) do
+    local rate = tonumber(ARGV[2 * i - 1])
+    local capacity = tonumber(ARGV[2 * i])
+    redis.call('hset', key, 'tokens', tostring(tokens[i] - 1), 'ts', tostring(now))
+    redis.call('pexpire', key, math.ceil(capacity * 1000 / rate) + 1000)
+end
+return {0, 0}
@@ -0,0 +1,6 @@
+-- 迁移旧订单流中的一条消息：追加到分片订单流，并在同一个脚本中记录迁移进度，中断后重新执行不会重复追加
+-- KEYS[1] 分片订单流，KEYS[2] 迁移进度（HASH）
+-- ARGV[1] 进度字段，ARGV[2] 旧消息id，ARGV[3..] 消息的field、value
+redis.call('XADD', KEYS[1], '*', unpack(ARGV, 3))
+redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])
+return 1
@@ -0,0 +1,40 @@
+-- 分段库存的秒杀：在用户所属的段上扣库存并记录已购用户
+-- KEYS[1] 所属段的库存key，KEYS[2] 所属段的已购用户集合key，KEYS[3] 所属段所在分片的订单流key，
+-- KEYS[4] 所属段的时间窗口key（开始毫秒:结束毫秒），四个key在同一个slot
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- 返回 0 下单成功，2 重复下单，3 所属段库存不足，已预占用户，需要到其它段借库存，4 尚未开始，5 已经结束
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local streamKey = KEYS[3]
+local windowKey = KEYS[4]
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+
+-- 0.判断是否在秒杀时间内，没有窗口时不限制时间
+local window = redis.call('get', windowKey)
+if (window) then
+    local sep = string.find(window, ':')
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(string.sub(window, 1, sep - 1))) then
+        return 4
+    end
+    if (now > tonumber(string.sub(window, sep + 1))) then
+        return 5
+    end
+end
+-- 1.同一个用户总是落在同一个段，只需要在这个段的集合里判断是否重复下单
+if (redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+-- 2.预占用户：库存不足时也先记录，避免同一用户的并发请求同时到其它段借库存
+redis.call('sadd', orderKey, userId)
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return 3
+end
+-- 3.扣库存，发送订单消息
+redis.call('incrby', stockKey, -1)
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return 0
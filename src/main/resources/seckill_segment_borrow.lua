@@ -0,0 +1,14 @@
+-- 分段库存的秒杀：所属段库存不足时，到其它段借一个库存
+-- KEYS[1] 被借段的库存key，KEYS[2] 被借段所在分片的订单流key，两个key在同一个slot
+-- ARGV[1] 优惠券id，ARGV[2] 用户id，ARGV[3] 订单id
+-- 返回 0 下单成功，1 该段库存也不足
+local stockKey = KEYS[1]
+local streamKey = KEYS[2]
+
+local stock = tonumber(redis.call('get', stockKey))
+if (stock == nil or stock <= 0) then
+    return 1
+end
+redis.call('incrby', stockKey, -1)
+redis.call('xadd', streamKey, '*', 'userId', ARGV[2], 'voucherId', ARGV[1], 'id', ARGV[3])
+return 0
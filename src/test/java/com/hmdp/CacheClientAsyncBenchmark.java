@@ -0,0 +1,130 @@
+package com.hmdp;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.CacheClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * 同步与异步 CacheClient 的对比：200个并发请求，每个请求像聚合接口一样查询5个店铺
+ * 同步版本依次发出5次redis往返，异步版本同时发出再等待全部完成
+ * 关闭本地缓存和热点副本，保证每次查询都真正访问redis
+ */
+@SpringBootTest(properties = {
+        "hmdp.cache.local.enabled=false",
+        "hmdp.cache.hot.enabled=false",
+        "hmdp.cache.warmup.on-startup=false"})
+class CacheClientAsyncBenchmark {
+
+    private static final String PREFIX = "bench:shop:";
+    //并发请求数，和Tomcat默认的最大线程数相同
+    private static final int CONCURRENCY = 200;
+    private static final int REQUESTS = 20_000;
+    //每个请求查询的店铺数量
+    private static final int FAN_OUT = 5;
+
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private ShopServiceImpl shopService;
+
+    private final ExecutorService es = Executors.newFixedThreadPool(CONCURRENCY);
+
+    @AfterEach
+    void tearDown() {
+        es.shutdown();
+    }
+
+    @Test
+    void blockingVsAsync() throws InterruptedException {
+        List<Long> ids = shopService.list().stream().map(Shop::getId).collect(Collectors.toList());
+        //先各跑一轮，写入缓存并让JIT和连接预热
+        run(ids, false, REQUESTS / 10);
+        run(ids, true, REQUESTS / 10);
+
+        Report blocking = run(ids, false, REQUESTS);
+        Report async = run(ids, true, REQUESTS);
+        System.out.println("同步: " + blocking);
+        System.out.println("异步: " + async);
+        System.out.printf("吞吐提升 %.2f 倍，p99 %.2fms -> %.2fms%n",
+                async.throughput / blocking.throughput, blocking.p99Ms, async.p99Ms);
+    }
+
+    private Report run(List<Long> ids, boolean async, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        CountDownLatch latch = new CountDownLatch(requests);
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int n = i;
+            es.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (async) {
+                        queryAsync(ids, n);
+                    } else {
+                        queryBlocking(ids, n);
+                    }
+                } finally {
+                    latencies[n] = System.nanoTime() - start;
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        return new Report(requests, System.nanoTime() - begin, latencies);
+    }
+
+    private void queryBlocking(List<Long> ids, int n) {
+        for (int i = 0; i < FAN_OUT; i++) {
+            Shop shop = cacheClient.queryWithPassThrough(PREFIX, ids.get((n + i) % ids.size()), Shop.class,
+                    shopService::getById, 30L, TimeUnit.MINUTES);
+            assertNotNull(shop);
+        }
+    }
+
+    private void queryAsync(List<Long> ids, int n) {
+        List<CompletableFuture<Shop>> futures = new ArrayList<>(FAN_OUT);
+        for (int i = 0; i < FAN_OUT; i++) {
+            futures.add(cacheClient.queryWithPassThroughAsync(PREFIX, ids.get((n + i) % ids.size()), Shop.class,
+                    shopService::getById, 30L, TimeUnit.MINUTES));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        futures.forEach(future -> assertNotNull(future.join()));
+    }
+
+    private static class Report {
+        private final double throughput;
+        private final double p50Ms;
+        private final double p99Ms;
+        private final double totalMs;
+
+        private Report(int requests, long totalNanos, long[] latencies) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            this.totalMs = totalNanos / 1e6;
+            this.throughput = requests / (totalNanos / 1e9);
+            this.p50Ms = sorted[sorted.length / 2] / 1e6;
+            this.p99Ms = sorted[(int) (sorted.length * 0.99)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("耗时 %.0fms，吞吐 %.0f 请求/秒，p50 %.2fms，p99 %.2fms", totalMs, throughput, p50Ms, p99Ms);
+        }
+    }
+}
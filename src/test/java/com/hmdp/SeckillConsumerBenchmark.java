@@ -0,0 +1,109 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 逐条消费与批量消费秒杀订单流的吞吐对比
+ * 向一个单独的测试订单流写入若干券的订单消息，分别按每次1条（加锁、查询、扣库存、插入、ACK各一次）
+ * 和每次100条（每个券一条扣库存update、一次批量插入、一次ACK）消费完，比较每秒处理的订单数
+ * 需要本地的redis和mysql，测试数据使用单独的券id，结束后删除
+ */
+@SpringBootTest(properties = "hmdp.cache.warmup.on-startup=false")
+class SeckillConsumerBenchmark {
+
+    private static final String STREAM = "bench:seckill:orders";
+    private static final long FIRST_VOUCHER_ID = 9_000_000_001L;
+    private static final int VOUCHERS = 4;
+    private static final int ORDERS = 20_000;
+    private static final int BATCH_SIZE = 100;
+
+    @Resource
+    private VoucherOrderServiceImpl voucherOrderService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @AfterEach
+    void tearDown() {
+        cleanUp();
+    }
+
+    @Test
+    void singleVsBatch() {
+        //先各跑一小轮，让JIT和连接池预热
+        run(1, ORDERS / 10);
+        run(BATCH_SIZE, ORDERS / 10);
+
+        double single = run(1, ORDERS);
+        double batch = run(BATCH_SIZE, ORDERS);
+        System.out.printf("逐条: %.0f 单/秒，批量(%d): %.0f 单/秒，提升 %.2f 倍%n", single, BATCH_SIZE, batch, batch / single);
+    }
+
+    //返回每秒处理的订单数
+    private double run(int batchSize, int orders) {
+        cleanUp();
+        prepare(orders);
+        long begin = System.nanoTime();
+        int consumed = 0;
+        int n;
+        while ((n = voucherOrderService.consume(STREAM, batchSize)) > 0) {
+            consumed += n;
+        }
+        long nanos = System.nanoTime() - begin;
+        assertEquals(orders, consumed);
+        assertEquals(orders, voucherOrderService.query().ge("voucher_id", FIRST_VOUCHER_ID)
+                .lt("voucher_id", FIRST_VOUCHER_ID + VOUCHERS).count());
+        return orders / (nanos / 1e9);
+    }
+
+    private void prepare(int orders) {
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < VOUCHERS; i++) {
+            SeckillVoucher seckillVoucher = new SeckillVoucher();
+            seckillVoucher.setVoucherId(FIRST_VOUCHER_ID + i);
+            seckillVoucher.setStock(orders);
+            seckillVoucher.setBeginTime(now.minusDays(1));
+            seckillVoucher.setEndTime(now.plusDays(1));
+            seckillVoucherService.save(seckillVoucher);
+        }
+        //每条订单一个不同的用户，均匀分布在各个券上
+        for (int i = 0; i < orders; i++) {
+            Map<String, String> value = new HashMap<>();
+            value.put("userId", String.valueOf(i + 1));
+            value.put("voucherId", String.valueOf(FIRST_VOUCHER_ID + i % VOUCHERS));
+            value.put("id", String.valueOf(FIRST_VOUCHER_ID * 10 + i));
+            stringRedisTemplate.opsForStream().add(STREAM, value);
+        }
+        stringRedisTemplate.opsForStream().createGroup(STREAM, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+    }
+
+    private void cleanUp() {
+        stringRedisTemplate.delete(STREAM);
+        List<Long> voucherIds = new ArrayList<>(VOUCHERS);
+        for (int i = 0; i < VOUCHERS; i++) {
+            voucherIds.add(FIRST_VOUCHER_ID + i);
+        }
+        voucherOrderService.remove(new QueryWrapper<VoucherOrder>().in("voucher_id", voucherIds));
+        seckillVoucherService.removeByIds(voucherIds);
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SeckillSoldOutMarker;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 分段库存的压测：同一张券分别按 1/2/4/8 段保存，200个并发用户抢购，比较每秒处理的请求数
+ * 单机redis是单线程的，分段后吞吐基本不变；在至少有K个主节点的集群上，各段落在不同节点，吞吐随K增长
+ * 另外验证：库存不足时借库存不超卖，同一用户重复抢购全部被拒绝
+ * 不消费订单流，测试写入的库存、用户集合和订单消息在结束后删除
+ */
+@SpringBootTest(properties = {
+        "hmdp.seckill.consumer.enabled=false",
+        "hmdp.cache.warmup.on-startup=false"})
+class SeckillSegmentBenchmark {
+
+    private static final long FIRST_VOUCHER_ID = 9_100_000_000L;
+    private static final int CONCURRENCY = 200;
+    private static final int REQUESTS = 50_000;
+    private static final int[] SEGMENTS = {1, 2, 4, 8};
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillStock seckillStock;
+    @Resource
+    private SeckillKeys seckillKeys;
+    @Resource
+    private SeckillSoldOutMarker soldOutMarker;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final List<Long> voucherIds = new ArrayList<>();
+    private final ExecutorService es = Executors.newFixedThreadPool(CONCURRENCY);
+
+    @AfterEach
+    void tearDown() {
+        es.shutdown();
+        for (Long voucherId : voucherIds) {
+            cleanUp(voucherId);
+        }
+    }
+
+    @Test
+    void throughputBySegments() throws InterruptedException {
+        //预热
+        run(newVoucher(REQUESTS, 1), REQUESTS / 10, 0);
+        for (int segments : SEGMENTS) {
+            long voucherId = newVoucher(REQUESTS, segments);
+            long begin = System.nanoTime();
+            int succeeded = run(voucherId, REQUESTS, 0);
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            assertEquals(REQUESTS, succeeded);
+            System.out.printf("分段数 %d：%.0f 请求/秒%n", segments, REQUESTS / seconds);
+        }
+    }
+
+    @Test
+    void borrowsWithoutOversellingAndDeduplicatesGlobally() throws InterruptedException {
+        int stock = 1000;
+        long voucherId = newVoucher(stock, 4);
+        //请求数是库存的5倍，各段用完后向其它段借，总共只能成功stock次
+        assertEquals(stock, run(voucherId, stock * 5, 0));
+        assertEquals(0, remaining(voucherId, 4));
+        //补库存后，已经买到的用户再抢全部被拒绝
+        seckillStock.add(voucherId, stock * 5);
+        soldOutMarker.clear(voucherId);
+        assertEquals(0, run(voucherId, stock, 0));
+        //没买到的用户还可以买
+        assertEquals(stock, run(voucherId, stock, stock * 5));
+    }
+
+    private long newVoucher(int stock, int segments) {
+        long voucherId = FIRST_VOUCHER_ID + voucherIds.size();
+        voucherIds.add(voucherId);
+        seckillStock.init(voucherId, stock, segments);
+        return voucherId;
+    }
+
+    //用户id从 firstUser+1 开始，每个请求一个用户，返回成功的数量
+    private int run(long voucherId, int requests, int firstUser) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(requests);
+        AtomicInteger succeeded = new AtomicInteger();
+        for (int i = 0; i < requests; i++) {
+            long userId = firstUser + i + 1L;
+            es.submit(() -> {
+                UserDTO user = new UserDTO();
+                user.setId(userId);
+                UserHolder.saveUser(user);
+                try {
+                    Result result = voucherOrderService.seckillVoucher(voucherId);
+                    if (Boolean.TRUE.equals(result.getSuccess())) {
+                        succeeded.incrementAndGet();
+                    }
+                } finally {
+                    UserHolder.removeUser();
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        return succeeded.get();
+    }
+
+    private int remaining(long voucherId, int segments) {
+        int total = 0;
+        for (int i = 0; i < segments; i++) {
+            total += Integer.parseInt(stringRedisTemplate.opsForValue().get(seckillKeys.segmentStockKey(voucherId, i)));
+        }
+        return total;
+    }
+
+    private void cleanUp(long voucherId) {
+        int segments = seckillStock.segments(voucherId);
+        List<String> keys = new ArrayList<>();
+        keys.add(seckillKeys.segmentsKey(voucherId));
+        keys.add(seckillKeys.stockKey(voucherId));
+        keys.add(seckillKeys.orderKey(voucherId));
+        for (int i = 0; i < segments; i++) {
+            keys.add(seckillKeys.segmentStockKey(voucherId, i));
+            keys.add(seckillKeys.segmentOrderKey(voucherId, i));
+        }
+        keys.forEach(stringRedisTemplate::delete);
+        //只删除测试券的订单消息
+        for (String streamKey : seckillKeys.streamKeys()) {
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().range(streamKey, Range.unbounded());
+            if (records == null) {
+                continue;
+            }
+            RecordId[] ids = records.stream()
+                    .filter(record -> String.valueOf(voucherId).equals(record.getValue().get("voucherId")))
+                    .map(MapRecord::getId)
+                    .toArray(RecordId[]::new);
+            if (ids.length > 0) {
+                stringRedisTemplate.opsForStream().delete(streamKey, ids);
+            }
+        }
+    }
+}
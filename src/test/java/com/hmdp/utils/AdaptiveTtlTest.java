@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟按Zipf分布读取的一批店铺：比较固定TTL和自适应TTL下redis的平均常驻内存和热点key的重建次数
+ */
+class AdaptiveTtlTest {
+
+    private static final int KEYS = 10_000;
+    private static final int READS = 500_000;
+    //每10毫秒一次读取，共约83分钟
+    private static final long READ_INTERVAL = 10L;
+    private static final long TTL = 30 * 60_000L;
+    private static final int VALUE_BYTES = 500;
+    //按访问量排名前多少的key算热点
+    private static final int HOT = 20;
+
+    @Test
+    void factorStaysWithinBounds() {
+        AdaptiveTtl ttl = new AdaptiveTtl(true, 0.25, 4.0, 64, 1024);
+        assertEquals(0.25, ttl.factor(0));
+        assertEquals(0.25, ttl.factor(1));
+        assertEquals(1.0, ttl.factor(8), 1e-9);
+        assertEquals(4.0, ttl.factor(64));
+        assertEquals(4.0, ttl.factor(10_000));
+        for (long f = 1; f < 64; f++) {
+            assertTrue(ttl.factor(f) <= ttl.factor(f + 1));
+        }
+    }
+
+    @Test
+    void disabledKeepsConfiguredTtl() {
+        AdaptiveTtl ttl = new AdaptiveTtl(false, 0.25, 4.0, 64, 1024);
+        ttl.record("cache:shop:1");
+        assertEquals(TTL, ttl.ttl("cache:shop:1", TTL));
+        assertEquals(TTL, ttl.ttlForWrite("cache:shop:1", TTL, VALUE_BYTES));
+    }
+
+    @Test
+    void agingForgetsOldAccesses() {
+        AdaptiveTtl ttl = new AdaptiveTtl(true, 0.25, 4.0, 64, 64);
+        for (int i = 0; i < 100; i++) {
+            ttl.record("cache:shop:1");
+        }
+        long before = ttl.frequency("cache:shop:1");
+        //宽度64向上取到128，其它key的访问累计到 宽度*10 次后整体减半
+        for (int i = 0; i < 1280; i++) {
+            ttl.record("cache:shop:other" + i);
+        }
+        assertTrue(ttl.frequency("cache:shop:1") <= before / 2 + 10);
+    }
+
+    @Test
+    void saveMemoryAndRebuildHotKeysLess() {
+        Result fixed = simulate(new AdaptiveTtl(false, 0.25, 4.0, 64, 8192));
+        AdaptiveTtl adaptiveTtl = new AdaptiveTtl(true, 0.25, 4.0, 64, 8192);
+        Result adaptive = simulate(adaptiveTtl);
+        System.out.printf("平均常驻 固定:%dKB 自适应:%dKB，热点key重建 固定:%d 自适应:%d，命中率 固定:%.3f 自适应:%.3f%n",
+                fixed.avgBytes / 1024, adaptive.avgBytes / 1024, fixed.hotMisses, adaptive.hotMisses,
+                fixed.hitRate, adaptive.hitRate);
+        System.out.println("自适应TTL统计: " + adaptiveTtl.stats());
+
+        //冷key过期得早、重新加载的次数变多，内存仍然明显减少，命中率只小幅下降
+        assertTrue(adaptive.avgBytes < fixed.avgBytes * 0.9);
+        assertTrue(adaptive.hotMisses < fixed.hotMisses);
+        assertTrue(adaptive.hitRate > fixed.hitRate - 0.05);
+        //统计里的节省比例和模拟结果方向一致
+        @SuppressWarnings("unchecked")
+        Map<String, Object> memory = (Map<String, Object>) adaptiveTtl.stats().get("memory");
+        assertTrue((Double) memory.get("savedRatio") > 0);
+    }
+
+    private Result simulate(AdaptiveTtl ttl) {
+        Random random = new Random(42);
+        double[] cdf = zipf(KEYS, 1.0);
+        Map<Integer, Long> expireAt = new HashMap<>();
+        long end = READS * READ_INTERVAL;
+        //字节*毫秒
+        long occupancy = 0;
+        long misses = 0;
+        long hotMisses = 0;
+        for (int i = 0; i < READS; i++) {
+            long now = i * READ_INTERVAL;
+            int rank = sample(cdf, random.nextDouble());
+            String key = "cache:shop:" + rank;
+            ttl.record(key);
+            Long expire = expireAt.get(rank);
+            if (expire != null && expire > now) {
+                continue;
+            }
+            misses++;
+            if (rank < HOT) {
+                hotMisses++;
+            }
+            long t = ttl.ttlForWrite(key, TTL, VALUE_BYTES);
+            expireAt.put(rank, now + t);
+            occupancy += VALUE_BYTES * Math.min(t, end - now);
+        }
+        return new Result(occupancy / end, hotMisses, 1 - (double) misses / READS);
+    }
+
+    private static double[] zipf(int n, double s) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, double u) {
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static class Result {
+        private final long avgBytes;
+        private final long hotMisses;
+        private final double hitRate;
+
+        private Result(long avgBytes, long hotMisses, double hitRate) {
+            this.avgBytes = avgBytes;
+            this.hotMisses = hotMisses;
+            this.hitRate = hitRate;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 逻辑过期查询的请求合并：后台重建进行中时key被删除，未命中的查询自己查库，不会拿到重建的空结果
+ */
+class CacheClientSingleFlightTest {
+
+    private static final String PREFIX = "cache:shop:";
+
+    private final FaultyRedis redis = new FaultyRedis();
+    private final CacheRebuildExecutor rebuildExecutor = new CacheRebuildExecutor(2, 10, "drop", 10);
+    private final RedisCircuitBreaker breaker = new RedisCircuitBreaker(false, 10, 4, 0.5, 100, 1000, 2, System::currentTimeMillis);
+    private final RedisConnectionFactory factory = redis.factory();
+    private final StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(factory);
+    private final CacheClient cacheClient = new CacheClient(stringRedisTemplate, factory, new RedisMessageListenerContainer(),
+            rebuildExecutor, breaker, Collections.singletonList(new JsonCacheCodec()), properties());
+
+    @AfterEach
+    void tearDown() {
+        cacheClient.shutdown();
+        rebuildExecutor.shutdown();
+    }
+
+    @Test
+    void missDuringRebuildLoadsItsOwnValue() throws Exception {
+        //写入一条已逻辑过期的数据
+        cacheClient.setWithLogicalExpire(PREFIX + 1, shop(1L), -1L, TimeUnit.MINUTES);
+        CountDownLatch rebuilding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger dbQueries = new AtomicInteger();
+
+        //1.读到过期数据，后台重建卡在查库
+        Shop stale = cacheClient.queryWithLogicalExpire(PREFIX, 1L, Shop.class, id -> {
+            dbQueries.incrementAndGet();
+            rebuilding.countDown();
+            await(release);
+            return shop(id);
+        }, 30L, TimeUnit.MINUTES);
+        assertEquals("shop-1", stale.getName());
+        assertTrue(rebuilding.await(5, TimeUnit.SECONDS));
+
+        //2.重建期间key被删除（例如更新店铺后失效），下一次读取未命中
+        stringRedisTemplate.delete(PREFIX + 1);
+        CompletableFuture<Shop> loaded = CompletableFuture.supplyAsync(() ->
+                cacheClient.queryWithLogicalExpire(PREFIX, 1L, Shop.class, id -> {
+                    dbQueries.incrementAndGet();
+                    return shop(id);
+                }, 30L, TimeUnit.MINUTES));
+
+        //3.未命中的查询不和重建合并，自己查库拿到数据
+        Shop shop = loaded.get(5, TimeUnit.SECONDS);
+        release.countDown();
+        assertNotNull(shop);
+        assertEquals("shop-1", shop.getName());
+        assertEquals(2, dbQueries.get());
+    }
+
+    private static Shop shop(Long id) {
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("shop-" + id);
+        return shop;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //和测试相关的配置：关掉抖动、提前刷新和编码迁移，缩小线程池和旧数据缓存
+    private static CacheProperties properties() {
+        CacheProperties properties = new CacheProperties();
+        properties.setCodecMigrateOnRead(false);
+        properties.setTtlJitter(0);
+        properties.getEarlyRefresh().setEnabled(false);
+        properties.getAsync().setLoaderThreads(2);
+        properties.getAsync().setQueueCapacity(10);
+        properties.getDegrade().setStaleCapacity(100);
+        properties.getDegrade().setDbConcurrency(20);
+        properties.getDegrade().setDbWaitMs(0);
+        return properties;
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 模拟一批同时预热的key：比较固定过期、TTL抖动、XFetch提前刷新下每秒的重建次数峰值
+ */
+class CacheExpiryTest {
+
+    //同时写入的key数量
+    private static final int KEYS = 1000;
+    //逻辑过期时长
+    private static final long TTL = 600_000L;
+    //单次重建耗时
+    private static final long DELTA = 3_000L;
+    //每个key每秒被读取一次
+    private static final long READ_INTERVAL = 1_000L;
+    //模拟时长，覆盖第一轮过期
+    private static final long HORIZON = 700_000L;
+
+    @Test
+    void fixedExpiryRebuildsEverythingInOneSecond() {
+        Result fixed = simulate(0, false);
+        assertEquals(KEYS, fixed.total);
+        assertEquals(KEYS, fixed.peak);
+    }
+
+    @Test
+    void earlyRefreshFlattensRebuildRate() {
+        Result fixed = simulate(0, false);
+        Result xfetch = simulate(0, true);
+        Result jitter = simulate(0.1, false);
+        Result both = simulate(0.1, true);
+        System.out.printf("每秒重建峰值 固定:%d XFetch:%d 抖动:%d 抖动+XFetch:%d%n",
+                fixed.peak, xfetch.peak, jitter.peak, both.peak);
+
+        assertTrue(xfetch.peak * 3 < fixed.peak, "XFetch应把重建分散到过期前的几秒");
+        assertTrue(both.peak * 20 < fixed.peak, "抖动+XFetch应把重建分散到整个抖动区间");
+        //提前刷新不会让每个key重建多次
+        assertEquals(KEYS, xfetch.total);
+        assertEquals(KEYS, both.total);
+        //提前量和重建耗时同一数量级，不会过早刷新
+        assertTrue(xfetch.earliest >= TTL - 10 * DELTA, "最早的提前刷新不应早于 ttl - 10*delta");
+    }
+
+    @Test
+    void jitterStaysWithinRatio() {
+        CacheExpiry expiry = new CacheExpiry(0.1, false, 1.0, new Random(1)::nextDouble);
+        for (int i = 0; i < 10_000; i++) {
+            long ttl = expiry.jitter(TTL);
+            assertTrue(ttl >= TTL * 0.9 && ttl <= TTL * 1.1);
+        }
+    }
+
+    @Test
+    void noEarlyRefreshWithoutRecordedDelta() {
+        CacheExpiry expiry = new CacheExpiry(0, true, 1.0, () -> 0.999999);
+        assertTrue(!expiry.shouldRefreshEarly(TTL - 1, TTL, 0));
+        assertTrue(expiry.shouldRefreshEarly(TTL - 1, TTL, DELTA));
+    }
+
+    private Result simulate(double jitterRatio, boolean earlyRefresh) {
+        Random random = new Random(42);
+        CacheExpiry expiry = new CacheExpiry(jitterRatio, earlyRefresh, 1.0, random::nextDouble);
+        long[] expireAt = new long[KEYS];
+        long[] phase = new long[KEYS];
+        boolean[] rebuilt = new boolean[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            //同一时刻预热，各自的读取时间点错开
+            expireAt[i] = expiry.jitter(TTL);
+            phase[i] = random.nextInt((int) READ_INTERVAL);
+        }
+        int[] perSecond = new int[(int) (HORIZON / 1000) + 1];
+        Result result = new Result();
+        result.earliest = Long.MAX_VALUE;
+        for (long tick = 0; tick < HORIZON; tick += READ_INTERVAL) {
+            for (int i = 0; i < KEYS; i++) {
+                long now = tick + phase[i];
+                if (rebuilt[i]) {
+                    continue;
+                }
+                if (now >= expireAt[i] || expiry.shouldRefreshEarly(now, expireAt[i], DELTA)) {
+                    rebuilt[i] = true;
+                    perSecond[(int) (now / 1000)]++;
+                    result.total++;
+                    result.earliest = Math.min(result.earliest, now);
+                }
+            }
+        }
+        for (int count : perSecond) {
+            result.peak = Math.max(result.peak, count);
+        }
+        return result;
+    }
+
+    private static class Result {
+        private int total;
+        private int peak;
+        private long earliest;
+    }
+}
@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量重建按key去重：和进行中的任务重叠的key不再重复重建
+ */
+class CacheRebuildExecutorTest {
+
+    private final CacheRebuildExecutor executor = new CacheRebuildExecutor(3, 10, "drop", 10);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void overlappingBatchesRebuildEachKeyOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> first = Collections.synchronizedList(new ArrayList<>());
+        List<String> second = Collections.synchronizedList(new ArrayList<>());
+        executor.submitBatch(Arrays.asList("cache:shop:1", "cache:shop:2"), keys -> {
+            first.addAll(keys);
+            await(release);
+        });
+        //单个提交的key同样参与去重
+        executor.submit("cache:shop:3", () -> await(release));
+        List<String> done = Collections.synchronizedList(new ArrayList<>());
+        executor.submitBatch(Arrays.asList("cache:shop:2", "cache:shop:3", "cache:shop:4"), second::addAll, done::addAll).get();
+        assertEquals(Collections.singletonList("cache:shop:4"), second);
+        //结束回调只带本批次负责的key，被去重的key上的锁由原来的任务释放；回调在future完成后执行，稍等一下
+        for (int i = 0; i < 100 && done.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.singletonList("cache:shop:4"), done);
+        assertTrue(executor.isPending("cache:shop:2"));
+        assertEquals(2L, executor.stats().get("deduplicated"));
+
+        //全部重叠时不再提交
+        List<String> third = Collections.synchronizedList(new ArrayList<>());
+        executor.submitBatch(Arrays.asList("cache:shop:1", "cache:shop:3"), third::addAll).get();
+        assertTrue(third.isEmpty());
+
+        release.countDown();
+        waitUntilIdle();
+        assertFalse(executor.isPending("cache:shop:1"));
+        assertEquals(Arrays.asList("cache:shop:1", "cache:shop:2"), first);
+        //重建结束后可以再次提交
+        executor.submitBatch(Collections.singletonList("cache:shop:1"), third::addAll).get();
+        assertEquals(Collections.singletonList("cache:shop:1"), third);
+    }
+
+    private void waitUntilIdle() throws InterruptedException {
+        for (int i = 0; i < 100 && (Integer) executor.stats().get("pending") > 0; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可注入故障的redis：只实现 CacheClient 用到的 GET/SET/DEL，数据放在内存map中
+ * 打开故障开关后每次调用都抛连接失败
+ */
+class FaultyRedis {
+    final Map<ByteBuffer, byte[]> data = new ConcurrentHashMap<>();
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean down;
+
+    RedisConnectionFactory factory() {
+        RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{RedisConnection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            return null;
+                        case "isClosed":
+                        case "isPipelined":
+                        case "isQueueing":
+                            return false;
+                        case "stringCommands":
+                        case "keyCommands":
+                            return proxy;
+                        default:
+                    }
+                    calls.incrementAndGet();
+                    if (down) {
+                        throw new RedisConnectionFailureException("injected fault");
+                    }
+                    switch (method.getName()) {
+                        case "get":
+                            return data.get(ByteBuffer.wrap((byte[]) args[0]));
+                        case "set":
+                            data.put(ByteBuffer.wrap((byte[]) args[0]), (byte[]) args[1]);
+                            return true;
+                        case "del":
+                            long removed = 0;
+                            for (byte[] key : (byte[][]) args[0]) {
+                                removed += data.remove(ByteBuffer.wrap(key)) == null ? 0 : 1;
+                            }
+                            return removed;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return (RedisConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[]{RedisConnectionFactory.class}, (proxy, method, args) -> {
+                    if ("getConnection".equals(method.getName())) {
+                        return connection;
+                    }
+                    if ("translateExceptionIfPossible".equals(method.getName())) {
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
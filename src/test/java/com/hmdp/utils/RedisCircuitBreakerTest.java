@@ -0,0 +1,220 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 熔断器状态切换，以及 CacheClient 在redis故障时的降级
+ * redis用一个动态代理的连接模拟：正常时读写内存map，打开故障开关后每次调用都抛连接失败
+ */
+class RedisCircuitBreakerTest {
+
+    private static final String PREFIX = "cache:shop:";
+    //窗口10秒，至少4次调用，失败率50%打开；慢调用100ms；打开1秒后放行2次试探
+    private static final int MINIMUM_CALLS = 4;
+    private static final long OPEN_MS = 1000;
+    private static final int HALF_OPEN_CALLS = 2;
+
+    private final AtomicLong now = new AtomicLong(1_000_000L);
+    private final FaultyRedis redis = new FaultyRedis();
+    private final AtomicInteger dbQueries = new AtomicInteger();
+    private RedisCircuitBreaker breaker;
+    private CacheRebuildExecutor rebuildExecutor;
+
+    @BeforeEach
+    void setUp() {
+        breaker = new RedisCircuitBreaker(true, 10, MINIMUM_CALLS, 0.5, 100, OPEN_MS, HALF_OPEN_CALLS, now::get);
+        rebuildExecutor = new CacheRebuildExecutor(2, 10, "drop", 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rebuildExecutor.shutdown();
+    }
+
+    @Test
+    void opensAfterFailureRateAndRecovers() {
+        for (int i = 0; i < MINIMUM_CALLS - 1; i++) {
+            assertThrows(RedisUnavailableException.class, () -> breaker.execute(this::fail));
+        }
+        //调用数没到下限，失败率再高也不打开
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+        assertThrows(RedisUnavailableException.class, () -> breaker.execute(this::fail));
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+
+        //打开期间不再执行调用
+        AtomicInteger calls = new AtomicInteger();
+        assertThrows(RedisUnavailableException.class, () -> breaker.execute(calls::incrementAndGet));
+        assertEquals(0, calls.get());
+
+        //到期后放行试探调用，全部成功则关闭
+        now.addAndGet(OPEN_MS);
+        assertEquals(RedisCircuitBreaker.State.HALF_OPEN, breaker.state());
+        for (int i = 0; i < HALF_OPEN_CALLS; i++) {
+            breaker.execute(calls::incrementAndGet);
+        }
+        assertEquals(HALF_OPEN_CALLS, calls.get());
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+
+        Map<String, Long> transitions = transitions();
+        assertEquals(1L, transitions.get("CLOSED->OPEN"));
+        assertEquals(1L, transitions.get("OPEN->HALF_OPEN"));
+        assertEquals(1L, transitions.get("HALF_OPEN->CLOSED"));
+    }
+
+    @Test
+    void failedTrialReopens() {
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            assertThrows(RedisUnavailableException.class, () -> breaker.execute(this::fail));
+        }
+        now.addAndGet(OPEN_MS);
+        breaker.execute(() -> 1);
+        assertThrows(RedisUnavailableException.class, () -> breaker.execute(this::fail));
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+        assertEquals(2L, transitions().get("CLOSED->OPEN") + transitions().get("HALF_OPEN->OPEN"));
+    }
+
+    @Test
+    void halfOpenLimitsTrialCalls() {
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            assertThrows(RedisUnavailableException.class, () -> breaker.execute(this::fail));
+        }
+        now.addAndGet(OPEN_MS);
+        //试探调用还没结束时，额外的请求被拒绝
+        AtomicInteger rejected = new AtomicInteger();
+        breaker.execute(() -> {
+            for (int i = 0; i < HALF_OPEN_CALLS; i++) {
+                try {
+                    breaker.execute(() -> 1);
+                } catch (RedisUnavailableException e) {
+                    rejected.incrementAndGet();
+                }
+            }
+            return null;
+        });
+        assertEquals(1, rejected.get());
+    }
+
+    @Test
+    void slowCallsCountAsFailures() {
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            breaker.execute(() -> {
+                sleep(110);
+                return 1;
+            });
+        }
+        assertEquals(RedisCircuitBreaker.State.OPEN, breaker.state());
+        assertEquals((long) MINIMUM_CALLS, breaker.stats().get("slow"));
+    }
+
+    @Test
+    void cacheClientServesStaleThenDatabaseWhileRedisIsDown() {
+        CacheClient cacheClient = cacheClient(20);
+        //正常时第一次查库写入缓存，第二次命中redis
+        assertEquals("shop-1", query(cacheClient, 1L).getName());
+        assertEquals("shop-1", query(cacheClient, 1L).getName());
+        assertEquals(1, dbQueries.get());
+
+        redis.down = true;
+        //读到过的数据返回本地旧数据，没读到过的经限流器查库
+        assertEquals("shop-1", query(cacheClient, 1L).getName());
+        assertEquals(1, dbQueries.get());
+        assertEquals("shop-2", query(cacheClient, 2L).getName());
+        assertEquals(2, dbQueries.get());
+
+        //失败次数达到下限后熔断打开，之后不再访问redis
+        for (int i = 0; i < MINIMUM_CALLS; i++) {
+            query(cacheClient, 1L);
+        }
+        assertTrue(breaker.isOpen());
+        int calls = redis.calls.get();
+        assertEquals("shop-1", query(cacheClient, 1L).getName());
+        assertEquals(calls, redis.calls.get());
+
+        //redis恢复，熔断到期后试探成功，重新走redis
+        redis.down = false;
+        now.addAndGet(OPEN_MS);
+        for (int i = 0; i < HALF_OPEN_CALLS; i++) {
+            query(cacheClient, 1L);
+        }
+        assertEquals(RedisCircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(redis.calls.get() > calls);
+        assertEquals(2, dbQueries.get());
+        cacheClient.shutdown();
+    }
+
+    @Test
+    void degradedDatabaseQueriesAreLimited() {
+        CacheClient cacheClient = cacheClient(0);
+        redis.down = true;
+        assertThrows(RedisUnavailableException.class, () -> query(cacheClient, 1L));
+        assertEquals(0, dbQueries.get());
+        cacheClient.shutdown();
+    }
+
+    private Shop query(CacheClient cacheClient, Long id) {
+        return cacheClient.queryWithPassThrough(PREFIX, id, Shop.class, this::loadShop, 30L, TimeUnit.MINUTES);
+    }
+
+    private Shop loadShop(Long id) {
+        dbQueries.incrementAndGet();
+        Shop shop = new Shop();
+        shop.setId(id);
+        shop.setName("shop-" + id);
+        return shop;
+    }
+
+    //关闭本地缓存和热点副本，每次查询都经过redis
+    private CacheClient cacheClient(int dbConcurrency) {
+        RedisConnectionFactory factory = redis.factory();
+        return new CacheClient(new StringRedisTemplate(factory), factory, new RedisMessageListenerContainer(), rebuildExecutor, breaker,
+                Collections.singletonList(new JsonCacheCodec()), properties(dbConcurrency));
+    }
+
+    //和测试相关的配置：关掉抖动、提前刷新和编码迁移，缩小线程池和旧数据缓存
+    private static CacheProperties properties(int dbConcurrency) {
+        CacheProperties properties = new CacheProperties();
+        properties.setCodecMigrateOnRead(false);
+        properties.setTtlJitter(0);
+        properties.getEarlyRefresh().setEnabled(false);
+        properties.getAsync().setLoaderThreads(2);
+        properties.getAsync().setQueueCapacity(10);
+        properties.getDegrade().setStaleCapacity(100);
+        properties.getDegrade().setDbConcurrency(dbConcurrency);
+        properties.getDegrade().setDbWaitMs(0);
+        return properties;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Long> transitions() {
+        return (Map<String, Long>) breaker.stats().get("transitions");
+    }
+
+    private Object fail() {
+        throw new RedisConnectionFailureException("connection refused");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分片分配：每个分片恰好分给一个存活实例，各实例分到的数量相差不超过1
+ */
+class SeckillConsumerGroupTest {
+
+    private static final int SHARDS = 16;
+
+    @Test
+    void everyShardHasExactlyOneOwner() {
+        for (int size = 1; size <= 5; size++) {
+            List<String> members = Arrays.asList("host-e:5", "host-a:1", "host-c:3", "host-b:2", "host-d:4").subList(0, size);
+            Set<Integer> seen = new HashSet<>();
+            int min = Integer.MAX_VALUE;
+            int max = 0;
+            for (String member : members) {
+                List<Integer> owned = SeckillConsumerGroup.assign(members, SHARDS, member);
+                for (Integer shard : owned) {
+                    assertTrue(seen.add(shard));
+                }
+                min = Math.min(min, owned.size());
+                max = Math.max(max, owned.size());
+            }
+            assertEquals(SHARDS, seen.size());
+            assertTrue(max - min <= 1);
+        }
+    }
+
+    @Test
+    void assignmentDoesNotDependOnListOrder() {
+        List<String> members = Arrays.asList("host-b:2", "host-a:1", "host-c:3");
+        List<String> reversed = Arrays.asList("host-c:3", "host-a:1", "host-b:2");
+        for (String member : members) {
+            assertEquals(SeckillConsumerGroup.assign(members, SHARDS, member),
+                    SeckillConsumerGroup.assign(reversed, SHARDS, member));
+        }
+    }
+
+    @Test
+    void unknownMemberOwnsNothing() {
+        assertEquals(Collections.emptyList(),
+                SeckillConsumerGroup.assign(Collections.singletonList("host-a:1"), SHARDS, "host-b:2"));
+    }
+}
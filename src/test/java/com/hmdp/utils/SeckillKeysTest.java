@@ -0,0 +1,44 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 秒杀脚本用到的三个key必须在同一个slot，不同分片尽量分散到不同slot
+ */
+class SeckillKeysTest {
+
+    private final SeckillKeys keys = new SeckillKeys(16);
+
+    @Test
+    void scriptKeysShareSlot() {
+        for (long voucherId = 1; voucherId <= 100; voucherId++) {
+            int slot = SlotHash.getSlot(keys.stockKey(voucherId));
+            assertEquals(slot, SlotHash.getSlot(keys.orderKey(voucherId)));
+            assertEquals(slot, SlotHash.getSlot(keys.streamKey(voucherId)));
+        }
+    }
+
+    @Test
+    void shardsSpreadAcrossSlots() {
+        Set<Integer> slots = new HashSet<>();
+        for (String streamKey : keys.streamKeys()) {
+            slots.add(SlotHash.getSlot(streamKey));
+        }
+        assertEquals(16, slots.size());
+        assertEquals(keys.streamKey(3), keys.streamKey(19));
+    }
+
+    @Test
+    void versionKeySharesSlotWithCacheKey() {
+        String key = "cache:shop:1";
+        assertEquals(SlotHash.getSlot(key), SlotHash.getSlot(CacheClient.versionKeyOf(key)));
+        assertTrue(CacheClient.versionKeyOf(key).startsWith(RedisConstants.CACHE_VERSION_KEY));
+    }
+}
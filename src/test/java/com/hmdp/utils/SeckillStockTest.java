@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 分段库存的拆分和用户到段的路由
+ */
+class SeckillStockTest {
+
+    @Test
+    void splitKeepsTotal() {
+        assertArrayEquals(new int[]{3, 3, 2, 2}, SeckillStock.split(10, 4));
+        assertArrayEquals(new int[]{1, 1, 0, 0}, SeckillStock.split(2, 4));
+        for (int total = 0; total < 100; total++) {
+            assertEquals(total, Arrays.stream(SeckillStock.split(total, 8)).sum());
+        }
+    }
+
+    @Test
+    void usersSpreadEvenlyAcrossSegments() {
+        int segments = 8;
+        int users = 80_000;
+        int[] counts = new int[segments];
+        //连续的用户id也要打散
+        for (long userId = 1; userId <= users; userId++) {
+            int segment = SeckillStock.homeSegment(userId, segments);
+            assertEquals(segment, SeckillStock.homeSegment(userId, segments));
+            counts[segment]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - users / segments) < users / segments / 10);
+        }
+    }
+
+    @Test
+    void segmentsLiveOnDifferentShards() {
+        SeckillKeys keys = new SeckillKeys(16);
+        long voucherId = 15;
+        for (int i = 0; i < 8; i++) {
+            for (int j = i + 1; j < 8; j++) {
+                assertTrue(keys.segmentShardOf(voucherId, i) != keys.segmentShardOf(voucherId, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 准入用的本机令牌桶和最近10秒的计数窗口
+ */
+class TokenBucketTest {
+
+    @Test
+    void burstThenRefillAtRate() {
+        //每秒100个，容量10
+        TokenBucket bucket = new TokenBucket(100, 10, 0);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(0));
+        }
+        //桶空了，一个令牌需要10毫秒补充
+        assertEquals(10, bucket.tryAcquire(0));
+        assertEquals(5, bucket.tryAcquire(5));
+        assertEquals(0, bucket.tryAcquire(10));
+        //补充不超过容量
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, bucket.tryAcquire(60_000));
+        }
+        assertTrue(bucket.tryAcquire(60_000) > 0);
+    }
+
+    @Test
+    void admittedCountMatchesRate() {
+        TokenBucket bucket = new TokenBucket(200, 20, 0);
+        int admitted = 0;
+        //10秒内每毫秒10个请求
+        for (long now = 0; now < 10_000; now++) {
+            for (int i = 0; i < 10; i++) {
+                if (bucket.tryAcquire(now) == 0) {
+                    admitted++;
+                }
+            }
+        }
+        //容量 + 速率*时长
+        assertEquals(20 + 200 * 10 - 1, admitted, 1);
+    }
+
+    @Test
+    void rateWindowCountsLastTenSeconds() {
+        SeckillAdmission.RateWindow window = new SeckillAdmission.RateWindow();
+        for (long second = 0; second < 20; second++) {
+            for (int i = 0; i < 5; i++) {
+                window.add(second * 1000 + i);
+            }
+        }
+        //当前这一秒不计入，之前的10秒各5次
+        assertEquals(50, window.sum(19_500));
+        assertEquals(50, window.sum(20_000));
+        //停止计数后逐秒移出窗口
+        assertEquals(25, window.sum(25_000));
+        assertEquals(0, window.sum(31_000));
+    }
+}